@@ -0,0 +1,157 @@
+package net.mls.pipeline.common.feature;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Computes the same term-frequency vector as Spark 2.1's {@code Tokenizer} followed by
+ * {@code HashingTF}, without building the lowercased string, the token array or the term map.
+ * Tokens are scanned in place over the review's chars and hashed with Spark's Murmur3 as they go.
+ *
+ * <p>Rules mirrored from Spark:
+ * <ul>
+ *   <li>the review is lowercased and split on every single {@code \s} character, so runs of
+ *       whitespace produce empty tokens, a leading one included, while trailing ones are
+ *       dropped, exactly as {@code String.split} does;</li>
+ *   <li>terms are hashed as their UTF-8 bytes with Murmur3_x86_32, seed 42, trailing bytes mixed
+ *       one at a time as {@code hashUnsafeBytes} does, then folded with a non-negative modulo.</li>
+ * </ul>
+ * Tokens containing non-ASCII characters take a slower path through {@link String#toLowerCase()}
+ * so locale and context-sensitive case mappings stay identical to Spark.
+ *
+ * <p>Instances are immutable and thread-safe; the {@link SparseTermVector} passed in is not.
+ */
+public final class HashingFeaturizer {
+    private static final int SEED = 42;
+    private static final int C1 = 0xcc9e2d51;
+    private static final int C2 = 0x1b873593;
+    // these locales lowercase ASCII letters to non-ASCII ones, e.g. Turkish 'I' to a dotless i
+    private static final boolean ASCII_FAST_PATH =
+            !Arrays.asList("tr", "az", "lt").contains(Locale.getDefault().getLanguage());
+
+    private final int numFeatures;
+    private final boolean binary;
+
+    public HashingFeaturizer(int numFeatures, boolean binary) {
+        if (numFeatures <= 0) {
+            throw new IllegalArgumentException("numFeatures must be positive: " + numFeatures);
+        }
+        this.numFeatures = numFeatures;
+        this.binary = binary;
+    }
+
+    public int getNumFeatures() {
+        return numFeatures;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Clears {@code out} and fills it with the hashed term frequencies of {@code review}.
+     */
+    public void featurize(CharSequence review, SparseTermVector out) {
+        out.clear();
+        int length = review.length();
+        // String.split drops trailing empty tokens, so scanning stops after the last non-whitespace char
+        int end = length;
+        while (end > 0 && isWhitespace(review.charAt(end - 1))) {
+            end--;
+        }
+        if (end == 0 && length > 0) {
+            // all whitespace: split yields no tokens at all
+            return;
+        }
+        int start = 0;
+        for (int i = 0; i <= end; i++) {
+            if (i == end || isWhitespace(review.charAt(i))) {
+                out.increment(indexOf(review, start, i), binary);
+                start = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Hash bucket of a single already-tokenized, not yet lowercased term.
+     */
+    public int indexOf(CharSequence text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) >= 0x80 || !ASCII_FAST_PATH) {
+                String term = text.subSequence(start, end).toString().toLowerCase();
+                return nonNegativeMod(murmur3(term.getBytes(StandardCharsets.UTF_8)), numFeatures);
+            }
+        }
+        int h1 = SEED;
+        int aligned = start + (end - start) / 4 * 4;
+        for (int i = start; i < aligned; i += 4) {
+            int word = lower(text.charAt(i))
+                    | lower(text.charAt(i + 1)) << 8
+                    | lower(text.charAt(i + 2)) << 16
+                    | lower(text.charAt(i + 3)) << 24;
+            h1 = mixH1(h1, mixK1(word));
+        }
+        for (int i = aligned; i < end; i++) {
+            h1 = mixH1(h1, mixK1(lower(text.charAt(i))));
+        }
+        return nonNegativeMod(fmix(h1, end - start), numFeatures);
+    }
+
+    // Spark's Murmur3_x86_32.hashUnsafeBytes: little-endian int blocks, then each trailing byte mixed on its own
+    public static int murmur3(byte[] bytes) {
+        int length = bytes.length;
+        int aligned = length - length % 4;
+        int h1 = SEED;
+        for (int i = 0; i < aligned; i += 4) {
+            int word = (bytes[i] & 0xff)
+                    | (bytes[i + 1] & 0xff) << 8
+                    | (bytes[i + 2] & 0xff) << 16
+                    | (bytes[i + 3] & 0xff) << 24;
+            h1 = mixH1(h1, mixK1(word));
+        }
+        for (int i = aligned; i < length; i++) {
+            // sign-extended, as Platform.getByte returns it
+            h1 = mixH1(h1, mixK1(bytes[i]));
+        }
+        return fmix(h1, length);
+    }
+
+    // the \s class of java.util.regex: [ \t\n\x0B\f\r]
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    private static int lower(char c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    private static int mixK1(int k1) {
+        k1 *= C1;
+        k1 = Integer.rotateLeft(k1, 15);
+        k1 *= C2;
+        return k1;
+    }
+
+    private static int mixH1(int h1, int k1) {
+        h1 ^= k1;
+        h1 = Integer.rotateLeft(h1, 13);
+        h1 = h1 * 5 + 0xe6546b64;
+        return h1;
+    }
+
+    private static int fmix(int h1, int length) {
+        h1 ^= length;
+        h1 ^= h1 >>> 16;
+        h1 *= 0x85ebca6b;
+        h1 ^= h1 >>> 13;
+        h1 *= 0xc2b2ae35;
+        h1 ^= h1 >>> 16;
+        return h1;
+    }
+
+    private static int nonNegativeMod(int x, int mod) {
+        int rawMod = x % mod;
+        return rawMod + (rawMod < 0 ? mod : 0);
+    }
+}
@@ -0,0 +1,64 @@
+package net.mls.pipeline.common.feature;
+
+import java.util.Arrays;
+
+/**
+ * A reusable sparse vector of term frequencies with its indices kept in ascending order,
+ * the order Spark's {@code SparseVector} uses. The backing arrays only ever grow, so a vector
+ * kept per thread stops allocating once it has seen the longest review.
+ */
+public final class SparseTermVector {
+    private int[] indices;
+    private double[] values;
+    private int size = 0;
+
+    public SparseTermVector() {
+        this(64);
+    }
+
+    public SparseTermVector(int initialCapacity) {
+        indices = new int[Math.max(initialCapacity, 1)];
+        values = new double[indices.length];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Counts one occurrence of the term hashed to {@code index}; with {@code binary} the
+     * frequency is capped at 1.
+     */
+    public void increment(int index, boolean binary) {
+        int pos = Arrays.binarySearch(indices, 0, size, index);
+        if (pos >= 0) {
+            values[pos] = binary ? 1.0 : values[pos] + 1.0;
+            return;
+        }
+        pos = -pos - 1;
+        if (size == indices.length) {
+            indices = Arrays.copyOf(indices, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        System.arraycopy(indices, pos, indices, pos + 1, size - pos);
+        System.arraycopy(values, pos, values, pos + 1, size - pos);
+        indices[pos] = index;
+        values[pos] = 1.0;
+        size++;
+    }
+
+    /**
+     * Number of non-zero entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    public int indexAt(int k) {
+        return indices[k];
+    }
+
+    public double valueAt(int k) {
+        return values[k];
+    }
+}
@@ -0,0 +1,65 @@
+package net.mls.pipeline.common.csv;
+
+/**
+ * RFC 4180 parser for comma-separated records. A field may be enclosed in double quotes, in which
+ * case it can contain commas, line breaks and quotes doubled as {@code ""}. Each record is parsed
+ * in one pass over its characters into a reused {@link CsvRecord}, so a reader kept per DoFn
+ * instance stops allocating once it has seen the longest record.
+ * <p>
+ * Parsing is lenient: characters after a closing quote are kept as part of the field, and a quote
+ * left open at the end of the input closes the field. A single trailing carriage return, left
+ * behind when CRLF text is split on line feeds, is ignored.
+ */
+public final class CsvReader {
+    private static final char DELIMITER = ',';
+    private static final char QUOTE = '"';
+
+    private final CsvRecord record = new CsvRecord();
+
+    /**
+     * Parses one record, which may contain line breaks inside quoted fields.
+     *
+     * @return the parsed fields, valid until the next call
+     */
+    public CsvRecord read(CharSequence text) {
+        record.clear();
+        int n = text.length();
+        if (n > 0 && text.charAt(n - 1) == '\r') {
+            n--;
+        }
+        // unescaping only ever shortens a field, so the whole record fits in n chars
+        record.ensureCapacity(n);
+
+        int i = 0;
+        while (true) {
+            if (i < n && text.charAt(i) == QUOTE) {
+                i++;
+                while (i < n) {
+                    char ch = text.charAt(i++);
+                    if (ch != QUOTE) {
+                        record.append(ch);
+                    } else if (i < n && text.charAt(i) == QUOTE) {
+                        record.append(QUOTE);
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+            }
+            while (i < n) {
+                char ch = text.charAt(i);
+                if (ch == DELIMITER) {
+                    break;
+                }
+                record.append(ch);
+                i++;
+            }
+            record.endField();
+            if (i >= n) {
+                return record;
+            }
+            // skip the delimiter
+            i++;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package net.mls.pipeline.common.csv;
+
+import java.util.Arrays;
+
+/**
+ * The fields of one parsed CSV record, unquoted and unescaped, stored back to back in a single
+ * char buffer. A field only becomes a String when it is asked for, so fields a caller skips cost
+ * nothing beyond the parse itself. A record is reused by its {@link CsvReader} and is only valid
+ * until the next call to {@link CsvReader#read}.
+ */
+public final class CsvRecord {
+    private char[] chars = new char[256];
+    private int length = 0;
+    private int[] ends = new int[16];
+    private int size = 0;
+
+    CsvRecord() {
+    }
+
+    void clear() {
+        length = 0;
+        size = 0;
+    }
+
+    void ensureCapacity(int capacity) {
+        if (chars.length < capacity) {
+            chars = Arrays.copyOf(chars, Math.max(capacity, chars.length * 2));
+        }
+    }
+
+    void append(char ch) {
+        chars[length++] = ch;
+    }
+
+    void endField() {
+        if (size == ends.length) {
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+        ends[size++] = length;
+    }
+
+    /**
+     * Number of fields.
+     */
+    public int size() {
+        return size;
+    }
+
+    public String get(int field) {
+        int start = start(field);
+        return new String(chars, start, ends[field] - start);
+    }
+
+    public double getDouble(int field) {
+        return Double.parseDouble(get(field).trim());
+    }
+
+    /**
+     * Same result as {@link Boolean#parseBoolean} without materialising the field.
+     */
+    public boolean getBoolean(int field) {
+        int start = start(field);
+        if (ends[field] - start != 4) {
+            return false;
+        }
+        return (chars[start] | 0x20) == 't' && (chars[start + 1] | 0x20) == 'r'
+                && (chars[start + 2] | 0x20) == 'u' && (chars[start + 3] | 0x20) == 'e';
+    }
+
+    public boolean isEmpty(int field) {
+        return ends[field] == start(field);
+    }
+
+    private int start(int field) {
+        if (field < 0 || field >= size) {
+            throw new IndexOutOfBoundsException("Field " + field + " of a record with " + size + " fields");
+        }
+        return field == 0 ? 0 : ends[field - 1];
+    }
+}
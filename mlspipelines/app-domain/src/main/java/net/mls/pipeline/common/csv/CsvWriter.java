@@ -0,0 +1,65 @@
+package net.mls.pipeline.common.csv;
+
+/**
+ * Builds RFC 4180 records readable by {@link CsvReader}. A field is quoted only when it holds a
+ * comma, a quote or a line break, with quotes inside it doubled, so plain values are written
+ * exactly as before. The builder is reused across records:
+ * <pre>
+ *     String line = writer.field(text).field(label).endRecord();
+ * </pre>
+ */
+public final class CsvWriter {
+    private final StringBuilder line = new StringBuilder(256);
+    private boolean first = true;
+
+    public CsvWriter field(CharSequence value) {
+        if (!first) {
+            line.append(',');
+        }
+        first = false;
+        if (value != null) {
+            append(line, value);
+        }
+        return this;
+    }
+
+    public CsvWriter field(Object value) {
+        return field(value == null ? null : value.toString());
+    }
+
+    /**
+     * Finishes the current record, without a line terminator, and starts the next one.
+     */
+    public String endRecord() {
+        String record = line.toString();
+        line.setLength(0);
+        first = true;
+        return record;
+    }
+
+    private static void append(StringBuilder out, CharSequence value) {
+        if (!needsQuotes(value)) {
+            out.append(value);
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == '"') {
+                out.append('"');
+            }
+            out.append(ch);
+        }
+        out.append('"');
+    }
+
+    private static boolean needsQuotes(CharSequence value) {
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == ',' || ch == '"' || ch == '\n' || ch == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,116 @@
+package net.mls.pipeline.common.util;
+
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.SerializableCoder;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.Reshuffle;
+import org.apache.beam.sdk.transforms.SerializableFunction;
+import org.apache.beam.sdk.values.PBegin;
+import org.apache.beam.sdk.values.PCollection;
+
+import java.io.IOException;
+
+/**
+ * Reads Avro container files from S3 and converts each record with {@code parseFn}. Inputs are
+ * named the way {@link InputDataTransform} names them: a key, a prefix or glob, or a shard
+ * manifest. Records are read with the schema stored in each file, so the reader needs no
+ * generated classes. Container files are split at their sync markers: every range of
+ * {@code splitSize} bytes reads the blocks whose sync marker starts inside it. The ranges are
+ * reshuffled and read by an ordinary DoFn, so the read runs on every runner.
+ */
+public class AvroInputTransform<T> extends PTransform<PBegin, PCollection<T>> {
+    private static final long DEFAULT_SPLIT_SIZE = 64L * 1024 * 1024;
+    // the block straddling the range end and the next one, read to find where it starts
+    private static final long BLOCK_SLACK = 4L * DataFileConstants.DEFAULT_SYNC_INTERVAL;
+
+    private String inputFile;
+    private String bucket;
+    private SerializableFunction<GenericRecord, T> parseFn;
+    private Coder<T> coder;
+    private long splitSize = DEFAULT_SPLIT_SIZE;
+
+    public AvroInputTransform(String inputFile, String bucket,
+                              SerializableFunction<GenericRecord, T> parseFn, Coder<T> coder) {
+        this.inputFile = inputFile;
+        this.bucket = bucket;
+        this.parseFn = parseFn;
+        this.coder = coder;
+    }
+
+    public AvroInputTransform<T> withSplitSize(long splitSize) {
+        this.splitSize = splitSize;
+        return this;
+    }
+
+    @Override
+    public PCollection<T> expand(PBegin input) {
+        return InputDataTransform.expandKeys(input, inputFile, bucket)
+                .apply("SplitFiles", ParDo.of(new SplitFileFn(bucket, splitSize)))
+                .setCoder(SerializableCoder.of(InputDataTransform.S3Range.class))
+                // ranges of one file are emitted together; spread them out before reading
+                .apply(Reshuffle.viaRandomKey())
+                .apply("ReadBlocks", ParDo.of(new AvroReadFn<>(bucket, parseFn)))
+                .setCoder(coder);
+    }
+
+    /**
+     * Cuts a container file into ranges of {@code splitSize}, looking its length up once.
+     */
+    static class SplitFileFn extends DoFn<String, InputDataTransform.S3Range> {
+        private final String bucket;
+        private final long splitSize;
+
+        SplitFileFn(String bucket, long splitSize) {
+            this.bucket = bucket;
+            this.splitSize = splitSize;
+        }
+
+        @ProcessElement
+        public void processElement(ProcessContext c) {
+            String key = c.element();
+            long length = S3Client.getLength(bucket, key);
+            for (long from = 0; from < length; from += splitSize) {
+                c.output(new InputDataTransform.S3Range(key, length, from, Math.min(from + splitSize, length)));
+            }
+        }
+    }
+
+    /**
+     * Reads the blocks whose sync marker starts inside one range.
+     */
+    static class AvroReadFn<T> extends DoFn<InputDataTransform.S3Range, T> {
+        private final String bucket;
+        private final SerializableFunction<GenericRecord, T> parseFn;
+
+        AvroReadFn(String bucket, SerializableFunction<GenericRecord, T> parseFn) {
+            this.bucket = bucket;
+            this.parseFn = parseFn;
+        }
+
+        @ProcessElement
+        public void processElement(ProcessContext c) throws IOException {
+            InputDataTransform.S3Range range = c.element();
+            try (DataFileReader<GenericRecord> reader = new DataFileReader<>(
+                    new S3SeekableInput(bucket, range.key, range.length, range.from, range.to, BLOCK_SLACK),
+                    new GenericDatumReader<GenericRecord>())) {
+                // moves to the first sync marker at or after the range start
+                reader.sync(range.from);
+                GenericRecord record = null;
+                while (reader.hasNext()) {
+                    // previousSync() is the end of the marker before the current block
+                    if (reader.previousSync() - DataFileConstants.SYNC_SIZE >= range.to) {
+                        return;
+                    }
+                    record = reader.next(record);
+                    c.output(parseFn.apply(record));
+                }
+            }
+        }
+    }
+}
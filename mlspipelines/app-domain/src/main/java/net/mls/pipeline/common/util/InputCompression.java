@@ -0,0 +1,98 @@
+package net.mls.pipeline.common.util;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression of an input file, recognised by extension or, failing that, by magic bytes.
+ * Every format decompresses as a stream; none of them can be entered mid-file, so a compressed
+ * input is read start to end by a single worker.
+ */
+public enum InputCompression {
+    NONE,
+    GZIP,
+    BZIP2,
+    /** zlib-wrapped deflate, as written by {@code DeflaterOutputStream} and Beam's DEFLATE. */
+    DEFLATE,
+    ZSTD;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public static InputCompression fromName(String name) {
+        String lower = name.toLowerCase();
+        if (lower.endsWith(".gz") || lower.endsWith(".gzip")) {
+            return GZIP;
+        }
+        if (lower.endsWith(".bz2")) {
+            return BZIP2;
+        }
+        if (lower.endsWith(".deflate") || lower.endsWith(".zz")) {
+            return DEFLATE;
+        }
+        if (lower.endsWith(".zst") || lower.endsWith(".zstd")) {
+            return ZSTD;
+        }
+        return NONE;
+    }
+
+    /**
+     * Recognises a format from the first bytes of a file; {@code NONE} if nothing matches. zlib
+     * is only recognised by name: its two-byte header starts with 'x' and can open a text file.
+     */
+    public static InputCompression fromMagic(byte[] head, int length) {
+        if (length >= 2 && (head[0] & 0xff) == 0x1f && (head[1] & 0xff) == 0x8b) {
+            return GZIP;
+        }
+        if (length >= 3 && head[0] == 'B' && head[1] == 'Z' && head[2] == 'h') {
+            return BZIP2;
+        }
+        if (length >= 4 && (head[0] & 0xff) == 0x28 && (head[1] & 0xff) == 0xb5
+                && (head[2] & 0xff) == 0x2f && (head[3] & 0xff) == 0xfd) {
+            return ZSTD;
+        }
+        return NONE;
+    }
+
+    /**
+     * Wraps {@code in}, which must be positioned at the start of the file, in a decompressing
+     * stream. The format comes from {@code name} and falls back to the stream's magic bytes.
+     */
+    public static InputStream open(String name, InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+        InputCompression compression = fromName(name);
+        if (compression == NONE) {
+            byte[] head = new byte[4];
+            buffered.mark(head.length);
+            int read = 0;
+            int n;
+            while (read < head.length && (n = buffered.read(head, read, head.length - read)) != -1) {
+                read += n;
+            }
+            buffered.reset();
+            compression = fromMagic(head, read);
+        }
+        return compression.decompress(buffered);
+    }
+
+    public InputStream decompress(InputStream in) throws IOException {
+        switch (this) {
+            case GZIP:
+                // reads concatenated members, as produced by parallel gzip tools
+                return new GZIPInputStream(in, BUFFER_SIZE);
+            case BZIP2:
+                return new BZip2CompressorInputStream(in, true);
+            case DEFLATE:
+                return new InflaterInputStream(in);
+            case ZSTD:
+                return new ZstdCompressorInputStream(in);
+            default:
+                return in;
+        }
+    }
+}
@@ -1,46 +1,499 @@
 package net.mls.pipeline.common.util;
 
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.SerializableCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
 import org.apache.beam.sdk.transforms.Create;
 import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.Flatten;
 import org.apache.beam.sdk.transforms.PTransform;
 import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.Reshuffle;
+import org.apache.beam.sdk.transforms.Values;
+import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PBegin;
 import org.apache.beam.sdk.values.PCollection;
-import org.apache.commons.io.IOUtils;
+import org.apache.beam.sdk.values.PCollectionList;
+import org.apache.beam.sdk.values.PCollectionTuple;
+import org.apache.beam.sdk.values.TupleTag;
+import org.apache.beam.sdk.values.TupleTagList;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+/**
+ * Reads the lines of one S3 object, or of every object matching a prefix or glob. A prefix ends
+ * in '/'; a glob may use {@code *} and {@code ?} within one path segment, {@code **} across
+ * segments, {@code [...]} and {@code {a,b}}. Matching keys are listed page by page and
+ * redistributed across workers. Each object is cut into byte ranges of {@code splitSize}, which
+ * are reshuffled and read in parallel by an ordinary DoFn, so the read runs on every runner, and
+ * each range is streamed line by line, so memory stays at one buffer plus one line regardless of
+ * the object size.
+ * <p>
+ * Compressed objects, recognised by {@link InputCompression}, are not split: none of the
+ * supported formats can be entered mid-stream, so each one is streamed and decompressed once, start
+ * to end, by one worker. Spread large compressed inputs over several objects to read them in
+ * parallel.
+ * <p>
+ * With {@link #withMultiLineRecords()} a line break inside a double-quoted CSV field does not end
+ * the line. A range boundary could then fall inside a quoted field, so objects are not split.
+ * <p>
+ * An input ending in {@code .manifest} is an {@link OutputManifest} written by the feature
+ * pipeline; the shards it lists are read in place of the manifest itself. {@link #ofKeys} reads
+ * an explicit list of keys instead, as chosen by an incremental run. {@link #keyedLines} pairs
+ * every line with the key of the object it was read from.
+ */
 public class InputDataTransform extends PTransform<PBegin, PCollection<String>> {
+    private static final long DEFAULT_SPLIT_SIZE = 64L * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long LINE_SLACK = 64 * 1024;
+    private static final Pattern GLOB_CHARS = Pattern.compile("[*?\\[{]");
+
+    private static final TupleTag<S3Range> RANGES = new TupleTag<S3Range>() {
+    };
+    private static final TupleTag<String> COMPRESSED = new TupleTag<String>() {
+    };
+
+    // shared by every read in the worker JVM, so the limit holds across bundles and threads
+    private static Semaphore readPermits;
+
     private String inputFile;
+    private List<String> keys;
     private String bucket;
+    private long splitSize = DEFAULT_SPLIT_SIZE;
+    private int maxConcurrency;
+    private boolean multiLineRecords;
 
     public InputDataTransform(String inputFile, String bucket) {
+        this(inputFile, bucket, 0);
+    }
+
+    /**
+     * @param maxConcurrency the most ranges each worker reads at once; 0 for no limit
+     */
+    public InputDataTransform(String inputFile, String bucket, int maxConcurrency) {
         this.inputFile = inputFile;
         this.bucket = bucket;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * Reads exactly {@code keys}, which must not be empty.
+     */
+    public static InputDataTransform ofKeys(List<String> keys, String bucket, int maxConcurrency) {
+        InputDataTransform transform = new InputDataTransform(null, bucket, maxConcurrency);
+        transform.keys = new ArrayList<>(keys);
+        return transform;
+    }
+
+    public InputDataTransform withSplitSize(long splitSize) {
+        this.splitSize = splitSize;
+        return this;
+    }
+
+    public InputDataTransform withMultiLineRecords() {
+        this.multiLineRecords = true;
+        return this;
     }
 
     @Override
     public PCollection<String> expand(PBegin input) {
-        PCollection<String> lines = input.getPipeline().apply(Create.of("s3"))
-                .apply(ParDo.of(new S3ReadFn("\n")));
-        return lines;
+        return input.apply(keyedLines()).apply(Values.create());
+    }
+
+    /**
+     * The same read, with each line keyed by the object it came from.
+     */
+    public PTransform<PBegin, PCollection<KV<String, String>>> keyedLines() {
+        return new KeyedLines();
+    }
+
+    private class KeyedLines extends PTransform<PBegin, PCollection<KV<String, String>>> {
+        @Override
+        public PCollection<KV<String, String>> expand(PBegin input) {
+            return expandKeyedLines(input);
+        }
+    }
+
+    private PCollection<KV<String, String>> expandKeyedLines(PBegin input) {
+        KvCoder<String, String> lineCoder = KvCoder.of(StringUtf8Coder.of(), StringUtf8Coder.of());
+        PCollection<String> keys = this.keys != null
+                ? input.apply(Create.of(this.keys).withCoder(StringUtf8Coder.of())).apply(Reshuffle.viaRandomKey())
+                : expandKeys(input, inputFile, bucket);
+        PCollectionTuple split = keys.apply("SplitRanges", ParDo.of(new SplitRangesFn(bucket, splitSize, multiLineRecords))
+                .withOutputTags(RANGES, TupleTagList.of(COMPRESSED)));
+
+        PCollection<KV<String, String>> plain = split.get(RANGES)
+                .setCoder(SerializableCoder.of(S3Range.class))
+                // ranges of one object are emitted together; spread them out before reading
+                .apply(Reshuffle.viaRandomKey())
+                .apply("ReadRanges", ParDo.of(new ReadRangeFn(bucket, maxConcurrency, multiLineRecords)))
+                .setCoder(lineCoder);
+        PCollection<KV<String, String>> compressed = split.get(COMPRESSED)
+                .setCoder(StringUtf8Coder.of())
+                .apply("Decompress", ParDo.of(new ReadCompressedFn(bucket, maxConcurrency, multiLineRecords)))
+                .setCoder(lineCoder);
+
+        return PCollectionList.of(plain).and(compressed).apply(Flatten.pCollections());
+    }
+
+    /**
+     * The keys to read for {@code inputFile}: the shards of a manifest, the objects matching a
+     * prefix or glob, or the single key itself.
+     */
+    static PCollection<String> expandKeys(PBegin input, String inputFile, String bucket) {
+        PCollection<String> keys = input.getPipeline().apply(Create.of(inputFile));
+        if (inputFile.endsWith(OutputManifest.SUFFIX)) {
+            keys = keys.apply("ReadManifest", ParDo.of(new ManifestKeysFn(bucket)));
+        } else if (isPattern(inputFile)) {
+            keys = keys.apply("ListObjects", ParDo.of(new ListKeysFn(bucket)));
+        } else {
+            return keys;
+        }
+        // the expansion runs on one worker; spread the keys out before reading
+        return keys.apply(Reshuffle.viaRandomKey());
+    }
+
+    static boolean isPattern(String inputFile) {
+        return inputFile.endsWith("/") || GLOB_CHARS.matcher(inputFile).find();
+    }
+
+    /**
+     * The objects {@code inputFile} names, a single key or a prefix or glob, by key with their
+     * ETags.
+     */
+    public static Map<String, String> listInputs(String bucket, String inputFile) {
+        Map<String, String> inputs = new TreeMap<>();
+        if (!isPattern(inputFile)) {
+            inputs.put(inputFile, S3Client.getETag(bucket, inputFile));
+            return inputs;
+        }
+        for (S3ObjectSummary object : matchingObjects(bucket, inputFile)) {
+            inputs.put(object.getKey(), object.getETag());
+        }
+        return inputs;
+    }
+
+    private static List<S3ObjectSummary> matchingObjects(String bucket, String pattern) {
+        Matcher glob = GLOB_CHARS.matcher(pattern);
+        String prefix = glob.find() ? pattern.substring(0, glob.start()) : pattern;
+        Pattern matcher = glob.find(0) ? globToRegex(pattern) : null;
+
+        List<S3ObjectSummary> matched = new ArrayList<>();
+        for (S3ObjectSummary object : S3Client.listObjects(bucket, prefix)) {
+            String key = object.getKey();
+            // skip the zero-byte "folder" markers some tools create
+            if (!key.endsWith("/") && (matcher == null || matcher.matcher(key).matches())) {
+                matched.add(object);
+            }
+        }
+        if (matched.isEmpty()) {
+            throw new IllegalArgumentException("No objects in s3://" + bucket + " match " + pattern);
+        }
+        return matched;
+    }
+
+    /**
+     * Expands a prefix or glob into the keys it matches.
+     */
+    static class ListKeysFn extends DoFn<String, String> {
+        private final String bucket;
+
+        ListKeysFn(String bucket) {
+            this.bucket = bucket;
+        }
+
+        @ProcessElement
+        public void processElement(ProcessContext c) {
+            for (S3ObjectSummary object : matchingObjects(bucket, c.element())) {
+                c.output(object.getKey());
+            }
+        }
     }
 
-     class S3ReadFn extends DoFn<String, String> {
-        private String delimiter;
-        S3ReadFn(String delimiter) {
-            this.delimiter = delimiter;
+    /**
+     * Emits the shard keys listed in a manifest.
+     */
+    static class ManifestKeysFn extends DoFn<String, String> {
+        private final String bucket;
+
+        ManifestKeysFn(String bucket) {
+            this.bucket = bucket;
         }
+
         @ProcessElement
-        public void processElement(ProcessContext c) throws Exception {
-            InputStream is = S3Client.readFromString(bucket, inputFile);
+        public void processElement(ProcessContext c) throws IOException {
+            for (OutputManifest.Shard shard : OutputManifest.read(bucket, c.element()).getShards()) {
+                c.output(shard.getKey());
+            }
+        }
+    }
+
+    static Pattern globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        boolean inAlternation = false;
+        for (int i = 0; i < glob.length(); i++) {
+            char ch = glob.charAt(i);
+            switch (ch) {
+                case '*':
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        regex.append(".*");
+                        i++;
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                case '[': {
+                    int close = glob.indexOf(']', i + 1);
+                    if (close < 0) {
+                        regex.append("\\[");
+                    } else {
+                        String set = glob.substring(i + 1, close);
+                        regex.append('[').append(set.startsWith("!") ? "^" + set.substring(1) : set).append(']');
+                        i = close;
+                    }
+                    break;
+                }
+                case '{':
+                    regex.append("(?:");
+                    inAlternation = true;
+                    break;
+                case '}':
+                    regex.append(inAlternation ? ")" : "\\}");
+                    inAlternation = false;
+                    break;
+                case ',':
+                    regex.append(inAlternation ? "|" : ",");
+                    break;
+                default:
+                    regex.append(Pattern.quote(String.valueOf(ch)));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * A byte range of one object. A line belongs to the range its first byte falls in: a range
+     * that does not start at 0 skips the partial line it begins in, and the last line of a range
+     * is read past the range end until its newline.
+     */
+    static final class S3Range implements Serializable {
+        final String key;
+        final long length;
+        final long from;
+        final long to;
+
+        S3Range(String key, long length, long from, long to) {
+            this.key = key;
+            this.length = length;
+            this.from = from;
+            this.to = to;
+        }
+    }
 
-            String result = IOUtils.toString(is, StandardCharsets.UTF_8);
-            String[] text = result.split(delimiter);
+    /**
+     * Cuts an object into ranges of {@code splitSize}, or passes a compressed object on whole to
+     * the {@code COMPRESSED} output. An object whose name gives no compression away is sniffed
+     * with a ranged GET of its first bytes, which also reports its length, so every object costs
+     * one request here.
+     */
+    static class SplitRangesFn extends DoFn<String, S3Range> {
+        private static final int MAGIC_LENGTH = 4;
+
+        private final String bucket;
+        private final long splitSize;
+        private final boolean multiLineRecords;
+
+        SplitRangesFn(String bucket, long splitSize, boolean multiLineRecords) {
+            this.bucket = bucket;
+            this.splitSize = splitSize;
+            this.multiLineRecords = multiLineRecords;
+        }
+
+        @ProcessElement
+        public void processElement(ProcessContext c) throws IOException {
+            String key = c.element();
+            if (InputCompression.fromName(key) != InputCompression.NONE) {
+                c.output(COMPRESSED, key);
+                return;
+            }
+            byte[] head = new byte[MAGIC_LENGTH];
+            int read = 0;
+            long length;
+            try (S3Object object = S3Client.readHead(bucket, key, MAGIC_LENGTH)) {
+                length = object.getObjectMetadata().getInstanceLength();
+                InputStream in = object.getObjectContent();
+                int n;
+                while (read < head.length && (n = in.read(head, read, head.length - read)) != -1) {
+                    read += n;
+                }
+            }
+            if (length == 0) {
+                return;
+            }
+            if (InputCompression.fromMagic(head, read) != InputCompression.NONE) {
+                c.output(COMPRESSED, key);
+                return;
+            }
+            if (multiLineRecords) {
+                c.output(new S3Range(key, length, 0, length));
+                return;
+            }
+            for (long from = 0; from < length; from += splitSize) {
+                c.output(new S3Range(key, length, from, Math.min(from + splitSize, length)));
+            }
+        }
+    }
+
+    /**
+     * Streams the lines of one range, so memory stays at one buffer plus one line whatever the
+     * object size.
+     */
+    static class ReadRangeFn extends DoFn<S3Range, KV<String, String>> {
+        private final String bucket;
+        private final int maxConcurrency;
+        private final boolean multiLineRecords;
+
+        ReadRangeFn(String bucket, int maxConcurrency, boolean multiLineRecords) {
+            this.bucket = bucket;
+            this.maxConcurrency = maxConcurrency;
+            this.multiLineRecords = multiLineRecords;
+        }
+
+        @ProcessElement
+        public void processElement(ProcessContext c) throws IOException, InterruptedException {
+            Semaphore limit = readPermits(maxConcurrency);
+            if (limit == null) {
+                read(c, c.element());
+                return;
+            }
+            limit.acquire();
+            try {
+                read(c, c.element());
+            } finally {
+                limit.release();
+            }
+        }
+
+        private void read(ProcessContext c, S3Range range) throws IOException {
+            // start one byte early: if that byte is a newline, the range starts on a line boundary
+            long position = range.from == 0 ? 0 : range.from - 1;
+
+            // request only up to the range end; the line running past it is read in LINE_SLACK windows
+            try (InputStream in = new BufferedInputStream(new S3RangeInputStream(
+                    bucket, range.key, range.length, position, range.to, LINE_SLACK), BUFFER_SIZE)) {
+                ByteArrayOutputStream line = new ByteArrayOutputStream();
+                if (range.from > 0) {
+                    position += readLine(in, line, multiLineRecords);
+                }
+                while (position < range.to) {
+                    long consumed = readLine(in, line, multiLineRecords);
+                    if (consumed == 0) {
+                        break;
+                    }
+                    position += consumed;
+                    if (line.size() > 0) {
+                        c.output(KV.of(range.key, new String(line.toByteArray(), StandardCharsets.UTF_8)));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Streams a compressed object once from start to end, decompressing as it goes.
+     */
+    static class ReadCompressedFn extends DoFn<String, KV<String, String>> {
+        private final String bucket;
+        private final int maxConcurrency;
+        private final boolean multiLineRecords;
+
+        ReadCompressedFn(String bucket, int maxConcurrency, boolean multiLineRecords) {
+            this.bucket = bucket;
+            this.maxConcurrency = maxConcurrency;
+            this.multiLineRecords = multiLineRecords;
+        }
+
+        @ProcessElement
+        public void processElement(ProcessContext c) throws IOException, InterruptedException {
+            Semaphore limit = readPermits(maxConcurrency);
+            if (limit == null) {
+                read(c, c.element());
+                return;
+            }
+            limit.acquire();
+            try {
+                read(c, c.element());
+            } finally {
+                limit.release();
+            }
+        }
+
+        private void read(ProcessContext c, String key) throws IOException {
+            try (InputStream in = new BufferedInputStream(
+                    InputCompression.open(key, S3Client.readFromString(bucket, key)), BUFFER_SIZE)) {
+                ByteArrayOutputStream line = new ByteArrayOutputStream();
+                while (readLine(in, line, multiLineRecords) > 0) {
+                    if (line.size() > 0) {
+                        c.output(KV.of(key, new String(line.toByteArray(), StandardCharsets.UTF_8)));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The worker-wide limit on concurrent reads, or null for none.
+     */
+    private static synchronized Semaphore readPermits(int maxConcurrency) {
+        if (maxConcurrency <= 0) {
+            return null;
+        }
+        if (readPermits == null) {
+            readPermits = new Semaphore(maxConcurrency);
+        }
+        return readPermits;
+    }
 
-            Arrays.stream(text).forEach(line -> c.output(line));
+    /**
+     * Reads up to and including the next '\n' into {@code line}, without the newline. With
+     * {@code quoted} a newline between an odd and an even double quote is part of the line;
+     * the quote byte never occurs inside a multi-byte UTF-8 sequence, so counting bytes works.
+     *
+     * @return the number of bytes consumed from {@code in}
+     */
+    private static long readLine(InputStream in, ByteArrayOutputStream line, boolean quoted)
+            throws IOException {
+        line.reset();
+        long consumed = 0;
+        boolean inQuotes = false;
+        int b;
+        while ((b = in.read()) != -1) {
+            consumed++;
+            if (b == '\n' && !inQuotes) {
+                break;
+            }
+            if (b == '"' && quoted) {
+                inQuotes = !inQuotes;
+            }
+            line.write(b);
         }
+        return consumed;
     }
 }
@@ -1,5 +1,7 @@
 package net.mls.pipeline.common.util;
 
+import org.apache.beam.sdk.options.Default;
+import org.apache.beam.sdk.options.Description;
 import org.apache.beam.sdk.options.PipelineOptions;
 
 public interface MLSPipelinesOptions extends PipelineOptions {
@@ -19,4 +21,30 @@ public interface MLSPipelinesOptions extends PipelineOptions {
     String getSecretAccessKey();
     void setSecretAccessKey(String value);
 
+    @Description("Maximum number of S3 objects or ranges read at once by each worker; 0 for no limit")
+    @Default.Integer(0)
+    int getMaxReadConcurrency();
+    void setMaxReadConcurrency(int value);
+
+    @Description("Allow line breaks inside quoted CSV fields of the S3 input of the feature and learning pipelines; "
+            + "objects are then read unsplit")
+    @Default.Boolean(false)
+    boolean getMultiLineRecords();
+    void setMultiLineRecords(boolean value);
+
+    @Description("Join the output shards into the single output object once they are written; on by default, "
+            + "except for incremental runs, where it would rejoin every shard of every earlier run")
+    Boolean getConcatenateOutput();
+    void setConcatenateOutput(Boolean value);
+
+    @Description("Format of the data model files between the feature and learning pipelines: csv or avro")
+    @Default.String("csv")
+    String getDataFormat();
+    void setDataFormat(String value);
+
+    @Description("Read only the input objects not yet recorded in the output manifest and append their shards")
+    @Default.Boolean(false)
+    boolean getIncremental();
+    void setIncremental(boolean value);
+
 }
\ No newline at end of file
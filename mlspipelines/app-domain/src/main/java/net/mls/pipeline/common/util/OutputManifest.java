@@ -0,0 +1,141 @@
+package net.mls.pipeline.common.util;
+
+import net.mls.pipeline.common.csv.CsvReader;
+import net.mls.pipeline.common.csv.CsvRecord;
+import net.mls.pipeline.common.csv.CsvWriter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The manifest stored next to a pipeline output as {@code <output>.manifest}: the shards that make
+ * up the output and the input objects already turned into those shards. Both live in one object
+ * so a run's shards and its high-water mark are committed by a single PUT. Each line is a CSV
+ * record, either {@code shard,<key>,<bytes>,<input>} or {@code input,<key>,<etag>}. A shard holds
+ * rows of the one input it names, so the shards of an input that is processed again can be
+ * dropped; shards from manifests written before inputs were recorded per shard have no input.
+ */
+public class OutputManifest {
+    public static final String SUFFIX = ".manifest";
+
+    private static final String SHARD = "shard";
+    private static final String INPUT = "input";
+
+    private final List<Shard> shards = new ArrayList<>();
+    private final Map<String, String> inputs = new TreeMap<>();
+
+    /**
+     * Reads a manifest, or returns an empty one if there is none yet.
+     */
+    public static OutputManifest read(String bucket, String key) throws IOException {
+        OutputManifest manifest = new OutputManifest();
+        if (!S3Client.exists(bucket, key)) {
+            return manifest;
+        }
+        CsvReader csv = new CsvReader();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                S3Client.readFromString(bucket, key), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                CsvRecord record = csv.read(line);
+                String type = record.get(0);
+                if (SHARD.equals(type)) {
+                    manifest.addShard(record.get(1), Long.parseLong(record.get(2)),
+                            record.size() > 3 ? record.get(3) : null);
+                } else if (INPUT.equals(type)) {
+                    manifest.addInput(record.get(1), record.get(2));
+                } else {
+                    throw new IOException("Unknown record type '" + type + "' in s3://" + bucket + "/" + key);
+                }
+            }
+        }
+        return manifest;
+    }
+
+    public void write(String bucket, String key) throws IOException {
+        CsvWriter csv = new CsvWriter();
+        StringBuilder out = new StringBuilder();
+        for (Shard shard : shards) {
+            csv.field(SHARD).field(shard.getKey()).field(shard.getBytes());
+            if (shard.getInput() != null) {
+                csv.field(shard.getInput());
+            }
+            out.append(csv.endRecord()).append('\n');
+        }
+        for (Map.Entry<String, String> input : inputs.entrySet()) {
+            out.append(csv.field(INPUT).field(input.getKey()).field(input.getValue()).endRecord()).append('\n');
+        }
+        S3Client.uploadFromString(bucket, key, out.toString());
+    }
+
+    /**
+     * @param input the key of the input the shard's rows were read from, or null if unknown
+     */
+    public void addShard(String key, long bytes, String input) {
+        shards.add(new Shard(key, bytes, input));
+    }
+
+    /**
+     * Drops the shards read from {@code input}, before it is processed again.
+     */
+    public void removeShardsOf(String input) {
+        shards.removeIf(shard -> input.equals(shard.getInput()));
+    }
+
+    public void addInput(String key, String etag) {
+        inputs.put(key, etag);
+    }
+
+    public List<Shard> getShards() {
+        return Collections.unmodifiableList(shards);
+    }
+
+    /**
+     * Processed input keys and the ETags they had when they were processed.
+     */
+    public Map<String, String> getInputs() {
+        return Collections.unmodifiableMap(inputs);
+    }
+
+    /**
+     * Whether this exact version of an input was processed; an object rewritten under the same
+     * key has a new ETag and counts as new.
+     */
+    public boolean isProcessed(String key, String etag) {
+        return etag.equals(inputs.get(key));
+    }
+
+    public static final class Shard {
+        private final String key;
+        private final long bytes;
+        private final String input;
+
+        Shard(String key, long bytes, String input) {
+            this.key = key;
+            this.bytes = bytes;
+            this.input = input;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public String getInput() {
+            return input;
+        }
+    }
+}
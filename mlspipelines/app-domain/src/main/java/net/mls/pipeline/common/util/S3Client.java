@@ -1,39 +1,135 @@
 package net.mls.pipeline.common.util;
 
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
 import com.amazonaws.ClientConfiguration;
 import com.amazonaws.Protocol;
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.retry.RetryUtils;
 import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.S3ClientOptions;
 import com.amazonaws.services.s3.model.*;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerConfiguration;
+import com.amazonaws.util.BinaryUtils;
+import com.amazonaws.util.Md5Utils;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Static access to the pipelines' S3 endpoint, configured under {@code s3Config} (defaults in
+ * app-domain's reference.conf): a pooled HTTP client that retries throttling and server errors
+ * with full-jitter exponential backoff, and a transfer pool for parallel part uploads. Files go
+ * through a {@link TransferManager}, which splits large ones into parallel multipart uploads;
+ * streams of unknown length go through {@link S3OutputStream}. {@code pathStyleAccess} lets the
+ * client talk to a local S3-compatible stand-in such as MinIO.
+ */
 public class S3Client {
 
 
+    /** User metadata key, without the x-amz-meta- prefix, of the hex content MD5 of uploaded files. */
+    public static final String MD5_METADATA = "content-md5";
+
     private static final Logger LOG = LoggerFactory.getLogger(S3Client.class);
     private static Config conf = ConfigFactory.load();
 
     private static AWSCredentials credentials = new BasicAWSCredentials(conf.getString("s3Config.accessKey"), conf.getString("s3Config.secretKey"));
 
-    private static ClientConfiguration clientConfig = new ClientConfiguration();
+    private static ClientConfiguration clientConfig = new ClientConfiguration()
+            .withProtocol(Protocol.valueOf(conf.getString("s3Config.protocol").toUpperCase()))
+            .withMaxConnections(conf.getInt("s3Config.maxConnections"))
+            .withConnectionTimeout(conf.getInt("s3Config.connectionTimeoutMs"))
+            .withSocketTimeout(conf.getInt("s3Config.socketTimeoutMs"))
+            .withTcpKeepAlive(true)
+            .withRetryPolicy(new RetryPolicy(PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION,
+                    new JitteredBackoff(conf.getLong("s3Config.retryBaseDelayMs"),
+                            conf.getLong("s3Config.throttledRetryBaseDelayMs"),
+                            conf.getLong("s3Config.retryMaxDelayMs")),
+                    conf.getInt("s3Config.maxErrorRetry"), true))
+            .withMaxErrorRetry(conf.getInt("s3Config.maxErrorRetry"));
 
     private static AmazonS3Client client = new AmazonS3Client(credentials, clientConfig);
 
+    private static final int PART_SIZE = conf.getInt("s3Config.partSizeMb") * 1024 * 1024;
+    private static final int PARALLEL_PARTS = conf.getInt("s3Config.parallelParts");
+
+    // part uploads only; tasks on this pool never wait on each other
+    private static final ExecutorService partPool = Executors.newFixedThreadPool(
+            conf.getInt("s3Config.uploadThreads"), daemonThreads("s3-part"));
+    // callers of the async variants wait here, never on the pools doing the transfers
+    private static final ExecutorService asyncPool = Executors.newCachedThreadPool(daemonThreads("s3-async"));
+
+    private static TransferManager transfers;
+
     static {
-        clientConfig.setProtocol(Protocol.HTTP);
         client.setEndpoint(conf.getString("s3Config.endpoint"));
+        client.setS3ClientOptions(S3ClientOptions.builder()
+                .setPathStyleAccess(conf.getBoolean("s3Config.pathStyleAccess"))
+                .build());
+
+        transfers = new TransferManager(client, Executors.newFixedThreadPool(
+                conf.getInt("s3Config.uploadThreads"), daemonThreads("s3-transfer")));
+        TransferManagerConfiguration transferConfig = new TransferManagerConfiguration();
+        transferConfig.setMinimumUploadPartSize(PART_SIZE);
+        transferConfig.setMultipartUploadThreshold((long) conf.getInt("s3Config.multipartThresholdMb") * 1024 * 1024);
+        transfers.setConfiguration(transferConfig);
+    }
+
+    /**
+     * Size of the parts {@link S3OutputStream} buffers and uploads.
+     */
+    public static int partSize() {
+        return PART_SIZE;
     }
 
+    /**
+     * Most parts a single {@link S3OutputStream} has in flight at once.
+     */
+    public static int parallelParts() {
+        return PARALLEL_PARTS;
+    }
+
+    /**
+     * Uploads a String without first encoding all of it into one array; large payloads go out as
+     * a parallel multipart upload.
+     */
     public static void uploadFromString(String bucket, String path, String str) throws IOException {
-        InputStream is = new ByteArrayInputStream(str.getBytes(StandardCharsets.UTF_8.name()));
-        client.putObject(bucket, path, is, new ObjectMetadata());
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new S3OutputStream(bucket, path), StandardCharsets.UTF_8))) {
+            writer.write(str);
+        }
+    }
+
+    /**
+     * Uploads a stream of unknown length, part by part.
+     */
+    public static void upload(String bucket, String path, InputStream in) throws IOException {
+        S3OutputStream out = new S3OutputStream(bucket, path);
+        try {
+            IOUtils.copyLarge(in, out);
+        } catch (IOException | RuntimeException e) {
+            out.abort();
+            throw e;
+        }
+        out.close();
     }
 
     public static InputStream readFromString(String bucket, String file) throws IOException {
@@ -41,13 +137,209 @@ public class S3Client {
         return obj.getObjectContent();
     }
 
+    /**
+     * Lists every key under {@code prefix}, following continuation tokens page by page.
+     */
+    public static List<String> listKeys(String bucket, String prefix) {
+        List<String> keys = new ArrayList<>();
+        for (S3ObjectSummary summary : listObjects(bucket, prefix)) {
+            keys.add(summary.getKey());
+        }
+        return keys;
+    }
+
+    /**
+     * Lists every object under {@code prefix} with its size and ETag.
+     */
+    public static List<S3ObjectSummary> listObjects(String bucket, String prefix) {
+        List<S3ObjectSummary> objects = new ArrayList<>();
+        ListObjectsV2Request request = new ListObjectsV2Request().withBucketName(bucket).withPrefix(prefix);
+        ListObjectsV2Result result;
+        do {
+            result = client.listObjectsV2(request);
+            objects.addAll(result.getObjectSummaries());
+            request.setContinuationToken(result.getNextContinuationToken());
+        } while (result.isTruncated());
+        return objects;
+    }
+
+    public static boolean exists(String bucket, String file) {
+        return client.doesObjectExist(bucket, file);
+    }
+
+    public static String getETag(String bucket, String file) {
+        return client.getObjectMetadata(bucket, file).getETag();
+    }
+
+    public static long getLength(String bucket, String file) {
+        return client.getObjectMetadata(bucket, file).getContentLength();
+    }
+
+    /**
+     * Opens the inclusive byte range {@code [start, end]} of an object. Callers that stop reading
+     * early should {@code abort()} the stream rather than let close drain the rest of the range.
+     */
+    public static S3ObjectInputStream readRange(String bucket, String file, long start, long end) {
+        S3Object obj = client.getObject(new GetObjectRequest(bucket, file).withRange(start, end));
+        return obj.getObjectContent();
+    }
+
+    /**
+     * Fetches up to the first {@code length} bytes of an object in the same request as its
+     * metadata, so a caller can sniff the content and learn the full size,
+     * {@code getObjectMetadata().getInstanceLength()}, without a separate HEAD. The caller must
+     * close the returned object.
+     */
+    public static S3Object readHead(String bucket, String file, int length) {
+        try {
+            return client.getObject(new GetObjectRequest(bucket, file).withRange(0, length - 1));
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() != 416) {
+                throw e;
+            }
+            // an empty object has no byte range to return
+            return client.getObject(new GetObjectRequest(bucket, file));
+        }
+    }
+
+    public static void upload(String bucket, String path, byte[] data, int length) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(length);
+        client.putObject(bucket, path, new ByteArrayInputStream(data, 0, length), metadata);
+    }
+
+    public static String startMultipart(String bucket, String path) {
+        return client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucket, path)).getUploadId();
+    }
+
+    /**
+     * Uploads a part on the transfer pool.
+     */
+    public static CompletableFuture<PartETag> uploadPartAsync(String bucket, String path, String uploadId,
+                                                              int partNumber, byte[] data, int length) {
+        return CompletableFuture.supplyAsync(() -> uploadPart(bucket, path, uploadId, partNumber, data, length),
+                partPool);
+    }
+
+    public static PartETag uploadPart(String bucket, String path, String uploadId, int partNumber,
+                                      byte[] data, int length) {
+        return client.uploadPart(new UploadPartRequest()
+                .withBucketName(bucket)
+                .withKey(path)
+                .withUploadId(uploadId)
+                .withPartNumber(partNumber)
+                .withInputStream(new ByteArrayInputStream(data, 0, length))
+                .withPartSize(length))
+                .getPartETag();
+    }
+
+    /**
+     * Copies the inclusive byte range {@code [first, last]} of another object in as a part,
+     * without the data leaving S3.
+     */
+    public static PartETag copyPart(String sourceBucket, String sourcePath, long first, long last,
+                                    String bucket, String path, String uploadId, int partNumber) {
+        return client.copyPart(new CopyPartRequest()
+                .withSourceBucketName(sourceBucket)
+                .withSourceKey(sourcePath)
+                .withFirstByte(first)
+                .withLastByte(last)
+                .withDestinationBucketName(bucket)
+                .withDestinationKey(path)
+                .withUploadId(uploadId)
+                .withPartNumber(partNumber))
+                .getPartETag();
+    }
+
+    public static void completeMultipart(String bucket, String path, String uploadId, List<PartETag> parts) {
+        client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket, path, uploadId, parts));
+    }
+
+    public static void abortMultipart(String bucket, String path, String uploadId) {
+        client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, path, uploadId));
+    }
+
+    /**
+     * Uploads a file readable by everyone, with the ACL set in the upload request itself. Files
+     * over {@code multipartThresholdMb} are sent as a parallel multipart upload, whose ETag is
+     * not the content MD5, so the hex MD5 of the file is stored as {@link #MD5_METADATA} user
+     * metadata for readers that verify what they download.
+     */
     public static void upload(String bucket, String path, File file) throws IOException {
-        InputStream is = new FileInputStream(file);
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.addUserMetadata(MD5_METADATA, BinaryUtils.toHex(Md5Utils.computeMD5Hash(file)));
+        try {
+            transfers.upload(new PutObjectRequest(bucket, path, file)
+                    .withMetadata(metadata)
+                    .withCannedAcl(CannedAccessControlList.PublicRead))
+                    .waitForCompletion();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted uploading " + file + " to s3://" + bucket + "/" + path);
+        } catch (AmazonClientException e) {
+            throw new IOException("Failed to upload " + file + " to s3://" + bucket + "/" + path, e);
+        }
+    }
+
+    public static CompletableFuture<Void> uploadAsync(String bucket, String path, File file) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                upload(bucket, path, file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, asyncPool);
+    }
+
+    public static CompletableFuture<Void> uploadFromStringAsync(String bucket, String path, String str) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                uploadFromString(bucket, path, str);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, asyncPool);
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Full-jitter exponential backoff: a uniform delay between zero and a ceiling that doubles
+     * with each retry. Throttled requests ("SlowDown", 503) start from a higher base so a burst of
+     * workers spreads out instead of retrying in lockstep.
+     */
+    private static final class JitteredBackoff implements RetryPolicy.BackoffStrategy {
+        private final long baseDelayMs;
+        private final long throttledBaseDelayMs;
+        private final long maxDelayMs;
+
+        JitteredBackoff(long baseDelayMs, long throttledBaseDelayMs, long maxDelayMs) {
+            this.baseDelayMs = baseDelayMs;
+            this.throttledBaseDelayMs = throttledBaseDelayMs;
+            this.maxDelayMs = maxDelayMs;
+        }
 
-        client.putObject(bucket, path, is, new ObjectMetadata());
+        @Override
+        public long delayBeforeNextRetry(AmazonWebServiceRequest request, AmazonClientException exception,
+                                         int retriesAttempted) {
+            long base = isThrottled(exception) ? throttledBaseDelayMs : baseDelayMs;
+            long ceiling = Math.min(maxDelayMs, base << Math.min(retriesAttempted, 20));
+            return ThreadLocalRandom.current().nextLong(ceiling + 1);
+        }
 
-        AccessControlList acl = client.getObjectAcl(bucket, path);
-        acl.grantPermission(GroupGrantee.AllUsers, Permission.Read);
-        client.setObjectAcl(bucket, path, acl);
+        private static boolean isThrottled(AmazonClientException exception) {
+            if (!(exception instanceof AmazonServiceException)) {
+                return false;
+            }
+            AmazonServiceException e = (AmazonServiceException) exception;
+            return RetryUtils.isThrottlingException(e) || e.getStatusCode() == 503;
+        }
     }
 }
@@ -0,0 +1,172 @@
+package net.mls.pipeline.common.util;
+
+import com.amazonaws.services.s3.model.PartETag;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Streams an object of unknown length to S3. Bytes are buffered one part at a time; the first
+ * full part starts a multipart upload, parts are uploaded in parallel on the S3Client transfer
+ * pool while the next one fills, and {@link #close()} completes the upload once they are all in.
+ * An object that never fills a part is sent as a single PUT. Memory stays at
+ * {@code parallelParts + 1} part buffers whatever the object size. The object only becomes
+ * visible on a successful close; {@link #abort()} discards it.
+ */
+public class S3OutputStream extends OutputStream {
+    /** S3 rejects parts smaller than this, except the last one. */
+    public static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    private final String bucket;
+    private final String key;
+    private final int partSize;
+    private final Semaphore inFlight;
+    private final ConcurrentLinkedQueue<byte[]> free = new ConcurrentLinkedQueue<>();
+    private final List<CompletableFuture<PartETag>> parts = new ArrayList<>();
+    private byte[] buffer;
+    private int count = 0;
+    private long bytesWritten = 0;
+    private String uploadId;
+    private boolean closed = false;
+    private volatile Throwable failure;
+
+    public S3OutputStream(String bucket, String key) {
+        this(bucket, key, S3Client.partSize(), S3Client.parallelParts());
+    }
+
+    public S3OutputStream(String bucket, String key, int partSize, int parallelParts) {
+        if (partSize < MIN_PART_SIZE) {
+            throw new IllegalArgumentException("Part size " + partSize + " is below the S3 minimum of " + MIN_PART_SIZE);
+        }
+        this.bucket = bucket;
+        this.key = key;
+        this.partSize = partSize;
+        this.inFlight = new Semaphore(Math.max(parallelParts, 1));
+        this.buffer = new byte[partSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (count == buffer.length) {
+            flushPart();
+        }
+        buffer[count++] = (byte) b;
+        bytesWritten++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (count == buffer.length) {
+                flushPart();
+            }
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            bytesWritten += n;
+        }
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (uploadId == null) {
+                S3Client.upload(bucket, key, buffer, count);
+            } else {
+                if (count > 0) {
+                    flushPart();
+                }
+                List<PartETag> etags = new ArrayList<>(parts.size());
+                for (CompletableFuture<PartETag> part : parts) {
+                    etags.add(part.get());
+                }
+                S3Client.completeMultipart(bucket, key, uploadId, etags);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort();
+            throw new InterruptedIOException("Interrupted uploading s3://" + bucket + "/" + key);
+        } catch (ExecutionException | RuntimeException e) {
+            abort();
+            throw new IOException("Failed to upload s3://" + bucket + "/" + key, e);
+        }
+    }
+
+    /**
+     * Discards everything written so far. Uploaded parts are released rather than left to
+     * accumulate storage charges.
+     */
+    public void abort() {
+        closed = true;
+        if (uploadId != null) {
+            String id = uploadId;
+            uploadId = null;
+            parts.forEach(part -> part.cancel(false));
+            S3Client.abortMultipart(bucket, key, id);
+        }
+    }
+
+    private void flushPart() throws IOException {
+        if (failure != null) {
+            abort();
+            throw new IOException("Failed to upload a part of s3://" + bucket + "/" + key, failure);
+        }
+        try {
+            if (uploadId == null) {
+                uploadId = S3Client.startMultipart(bucket, key);
+            }
+            // bounds the buffers held by uploads in flight
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort();
+            throw new InterruptedIOException("Interrupted uploading s3://" + bucket + "/" + key);
+        } catch (RuntimeException e) {
+            abort();
+            throw new IOException("Failed to start the upload of s3://" + bucket + "/" + key, e);
+        }
+        byte[] part = buffer;
+        CompletableFuture<PartETag> upload = S3Client.uploadPartAsync(bucket, key, uploadId, parts.size() + 1, part, count);
+        upload.whenComplete((etag, error) -> {
+            if (error != null) {
+                failure = error;
+            }
+            free.add(part);
+            inFlight.release();
+        });
+        parts.add(upload);
+
+        byte[] next = free.poll();
+        buffer = next != null ? next : new byte[partSize];
+        count = 0;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream to s3://" + bucket + "/" + key + " is closed");
+        }
+    }
+}
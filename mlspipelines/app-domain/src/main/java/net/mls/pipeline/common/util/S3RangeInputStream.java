@@ -0,0 +1,99 @@
+package net.mls.pipeline.common.util;
+
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads an S3 object forward from {@code from} with ranged GETs sized to what the caller expects
+ * to need. The first GET covers {@code from} up to {@code end}, the end of the caller's range;
+ * reading on past it, as a reader finishing the record that straddles the end does, fetches
+ * further windows of {@code slack} bytes each until the object ends. A caller that stops within
+ * a window leaves at most {@code slack} bytes unread, which {@link #close()} drains so the
+ * connection goes back to the pool instead of being aborted.
+ */
+public class S3RangeInputStream extends InputStream {
+    private final String bucket;
+    private final String key;
+    private final long length;
+    private final long end;
+    private final long slack;
+    private long position;
+    private long windowEnd;
+    private S3ObjectInputStream in;
+
+    /**
+     * @param length the length of the object
+     * @param from   the first byte to read
+     * @param end    the end, exclusive, of the bytes the caller expects to read
+     * @param slack  the size of each further GET past {@code end}
+     */
+    public S3RangeInputStream(String bucket, String key, long length, long from, long end, long slack) {
+        if (slack <= 0) {
+            throw new IllegalArgumentException("Slack must be positive, got " + slack);
+        }
+        this.bucket = bucket;
+        this.key = key;
+        this.length = length;
+        this.end = Math.min(end, length);
+        this.slack = slack;
+        this.position = from;
+        this.windowEnd = from;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (position >= length) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= windowEnd) {
+            openWindow();
+        }
+        int n = in.read(b, off, (int) Math.min(len, windowEnd - position));
+        if (n == -1) {
+            throw new EOFException("s3://" + bucket + "/" + key + " ended at " + position
+                    + " inside a range ending at " + windowEnd);
+        }
+        position += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in == null) {
+            return;
+        }
+        if (windowEnd - position > slack) {
+            // more is left than a window of slack; don't let close() drain it
+            in.abort();
+        } else {
+            in.close();
+        }
+        in = null;
+        windowEnd = position;
+    }
+
+    private void openWindow() throws IOException {
+        if (in != null) {
+            // the window was read to its end, so this only releases the connection
+            in.close();
+        }
+        windowEnd = position < end ? end : Math.min(position + slack, length);
+        in = S3Client.readRange(bucket, key, position, windowEnd - 1);
+    }
+}
@@ -0,0 +1,97 @@
+package net.mls.pipeline.common.util;
+
+import org.apache.avro.file.SeekableInput;
+
+import java.io.IOException;
+
+/**
+ * Random access to an S3 object for Avro's {@code DataFileReader}. Reads stream forward through an
+ * {@link S3RangeInputStream}; a seek elsewhere drops the open stream and the next read starts a
+ * new ranged GET, so a reader that syncs once and then reads forward makes one request. Given the
+ * range a reader is expected to cover, a stream opened inside it requests only up to its end, and
+ * anything read past it or outside it, such as the header, comes in windows of {@code slack}
+ * bytes.
+ */
+public class S3SeekableInput implements SeekableInput {
+    private static final long DEFAULT_SLACK = 64 * 1024;
+
+    private final String bucket;
+    private final String key;
+    private final long length;
+    private final long from;
+    private final long to;
+    private final long slack;
+    private long position = 0;
+    private S3RangeInputStream in;
+
+    public S3SeekableInput(String bucket, String key) {
+        this(bucket, key, S3Client.getLength(bucket, key));
+    }
+
+    public S3SeekableInput(String bucket, String key, long length) {
+        this(bucket, key, length, 0, length, DEFAULT_SLACK);
+    }
+
+    /**
+     * @param from  the start of the range the reader is expected to cover
+     * @param to    the end, exclusive, of that range
+     * @param slack the size of each GET past {@code to} or outside the range
+     */
+    public S3SeekableInput(String bucket, String key, long length, long from, long to, long slack) {
+        this.bucket = bucket;
+        this.key = key;
+        this.length = length;
+        this.from = from;
+        this.to = to;
+        this.slack = slack;
+    }
+
+    @Override
+    public void seek(long p) throws IOException {
+        if (p < 0 || p > length) {
+            throw new IOException("Seek to " + p + " outside s3://" + bucket + "/" + key + " of " + length + " bytes");
+        }
+        if (p != position) {
+            closeStream();
+            position = p;
+        }
+    }
+
+    @Override
+    public long tell() {
+        return position;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (position >= length) {
+            return -1;
+        }
+        if (in == null) {
+            long end = position >= from && position < to ? to : position;
+            in = new S3RangeInputStream(bucket, key, length, position, end, slack);
+        }
+        int n = in.read(b, off, len);
+        if (n > 0) {
+            position += n;
+        }
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeStream();
+    }
+
+    private void closeStream() throws IOException {
+        if (in != null) {
+            in.close();
+            in = null;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package net.mls.pipeline.common.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Measures upload throughput against the configured {@code s3Config} endpoint, typically a local
+ * S3-compatible stand-in, so client settings can be compared:
+ * <pre>
+ *     java -cp app-domain.jar net.mls.pipeline.common.util.S3Throughput &lt;bucket&gt; [sizeMb] [runs]
+ * </pre>
+ * Each run uploads the same random payload as one PUT, as a stream through
+ * {@link S3OutputStream}, and as a file through the transfer manager.
+ */
+public class S3Throughput {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: S3Throughput <bucket> [sizeMb] [runs]");
+            System.exit(1);
+        }
+        String bucket = args[0];
+        int sizeMb = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        byte[] payload = new byte[sizeMb * 1024 * 1024];
+        new Random(42).nextBytes(payload);
+        File file = File.createTempFile("s3-throughput", ".bin");
+        Files.write(file.toPath(), payload);
+
+        try {
+            for (int run = 1; run <= runs; run++) {
+                String key = "s3-throughput/" + run;
+
+                long start = System.nanoTime();
+                S3Client.upload(bucket, key + "/put", payload, payload.length);
+                report("single PUT", sizeMb, start);
+
+                start = System.nanoTime();
+                try (OutputStream out = new S3OutputStream(bucket, key + "/stream")) {
+                    // write in modest chunks, the way the pipeline writers do
+                    for (int off = 0; off < payload.length; off += 64 * 1024) {
+                        out.write(payload, off, Math.min(64 * 1024, payload.length - off));
+                    }
+                }
+                report("multipart stream", sizeMb, start);
+
+                start = System.nanoTime();
+                S3Client.upload(bucket, key + "/file", file);
+                report("transfer manager", sizeMb, start);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void report(String mode, int sizeMb, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-18s %6d MB in %7.2f s  %8.1f MB/s%n", mode, sizeMb, seconds, sizeMb / seconds);
+    }
+}
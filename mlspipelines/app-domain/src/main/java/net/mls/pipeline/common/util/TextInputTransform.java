@@ -0,0 +1,105 @@
+package net.mls.pipeline.common.util;
+
+import org.apache.beam.sdk.io.Compression;
+import org.apache.beam.sdk.io.FileIO;
+import org.apache.beam.sdk.io.FileSystems;
+import org.apache.beam.sdk.io.TextIO;
+import org.apache.beam.sdk.io.fs.MatchResult;
+import org.apache.beam.sdk.io.fs.MetadataCoder;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.Flatten;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.values.PBegin;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.PCollectionList;
+import org.apache.beam.sdk.values.PCollectionTuple;
+import org.apache.beam.sdk.values.TupleTag;
+import org.apache.beam.sdk.values.TupleTagList;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the lines of every file matching a pattern on any Beam filesystem, typically local
+ * disk. Each file is checked with {@link InputCompression}: plain files go through
+ * {@link TextIO#readAll()} and are split like any text input, compressed ones are decompressed
+ * as they stream, one worker per file.
+ */
+public class TextInputTransform extends PTransform<PBegin, PCollection<String>> {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final TupleTag<String> PLAIN = new TupleTag<String>() {
+    };
+    private static final TupleTag<MatchResult.Metadata> COMPRESSED = new TupleTag<MatchResult.Metadata>() {
+    };
+
+    private String filepattern;
+
+    public TextInputTransform(String filepattern) {
+        this.filepattern = filepattern;
+    }
+
+    @Override
+    public PCollection<String> expand(PBegin input) {
+        PCollectionTuple files = input.apply(FileIO.match().filepattern(filepattern))
+                .apply("DetectCompression", ParDo.of(new DetectCompressionFn())
+                        .withOutputTags(PLAIN, TupleTagList.of(COMPRESSED)));
+
+        PCollection<String> plain = files.get(PLAIN)
+                .apply(TextIO.readAll().withCompression(Compression.UNCOMPRESSED));
+        PCollection<String> compressed = files.get(COMPRESSED).setCoder(MetadataCoder.of())
+                .apply(FileIO.readMatches().withCompression(Compression.UNCOMPRESSED))
+                .apply("Decompress", ParDo.of(new ReadCompressedFn()));
+
+        return PCollectionList.of(plain).and(compressed).apply(Flatten.pCollections());
+    }
+
+    static class DetectCompressionFn extends DoFn<MatchResult.Metadata, String> {
+        @ProcessElement
+        public void processElement(ProcessContext c) throws IOException {
+            MatchResult.Metadata file = c.element();
+            if (isCompressed(file)) {
+                c.output(COMPRESSED, file);
+            } else {
+                c.output(file.resourceId().toString());
+            }
+        }
+
+        private static boolean isCompressed(MatchResult.Metadata file) throws IOException {
+            if (InputCompression.fromName(file.resourceId().getFilename()) != InputCompression.NONE) {
+                return true;
+            }
+            ByteBuffer head = ByteBuffer.allocate(4);
+            try (ReadableByteChannel channel = FileSystems.open(file.resourceId())) {
+                while (head.hasRemaining() && channel.read(head) != -1) {
+                    // keep reading until the header is complete or the file ends
+                }
+            }
+            return InputCompression.fromMagic(head.array(), head.position()) != InputCompression.NONE;
+        }
+    }
+
+    static class ReadCompressedFn extends DoFn<FileIO.ReadableFile, String> {
+        @ProcessElement
+        public void processElement(ProcessContext c) throws IOException {
+            FileIO.ReadableFile file = c.element();
+            String name = file.getMetadata().resourceId().getFilename();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    InputCompression.open(name, Channels.newInputStream(file.open())),
+                    StandardCharsets.UTF_8), BUFFER_SIZE)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        c.output(line);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -3,7 +3,11 @@ package net.mls.pipeline.data;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import net.mls.pipeline.common.util.ConfigUtil;
+import net.mls.pipeline.common.util.TextInputTransform;
 import net.mls.pipeline.common.avro.BasicData;
+import net.mls.pipeline.common.csv.CsvReader;
+import net.mls.pipeline.common.csv.CsvRecord;
+import net.mls.pipeline.common.csv.CsvWriter;
 import net.mls.pipeline.data.fn.BasicDataProcessFn;
 import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.coders.AvroCoder;
@@ -32,7 +36,8 @@ public class DataIngestionPipeline {
 
         CoderRegistry cr = p.getCoderRegistry();
         cr.registerCoderForClass(BasicData.class, AvroCoder.of(BasicData.class));
-        p.apply(TextIO.read().from(conf.getString("input")))
+        // TextIO ends a record at every line break, so quoted fields here must not span lines
+        p.apply(new TextInputTransform(conf.getString("input")))
                 .apply(ParDo.of(new RawDataProcessFn()))
                 .apply(TextIO.write().to(conf.getString("output")).withoutSharding());
 //                .apply(AvroIO.write(BasicData.class).to(conf.getString("output")).withoutSharding());
@@ -41,13 +46,22 @@ public class DataIngestionPipeline {
     }
 
     static class RawDataProcessFn extends DoFn<String, String> {
+        private transient CsvReader reader;
+        private transient CsvWriter writer;
+
+        @Setup
+        public void setup() {
+            reader = new CsvReader();
+            writer = new CsvWriter();
+        }
+
         @DoFn.ProcessElement
         public void processElement(ProcessContext c) {
-            String[] line = c.element().split("\",\"");
+            CsvRecord line = reader.read(c.element());
             BasicDataProcessFn fn = new BasicDataProcessFn();
             BasicData data = fn.apply(line);
 
-            c.output(data.getText().toString()+","+data.getDate().toString()+","+data.getSentiment().toString());
+            c.output(writer.field(data.getText()).field(data.getDate()).field(data.getSentiment()).endRecord());
         }
     }
 }
@@ -1,12 +1,13 @@
 package net.mls.pipeline.data.fn;
 
 import net.mls.pipeline.common.avro.BasicData;
+import net.mls.pipeline.common.csv.CsvRecord;
 
 import java.util.function.Function;
 
-public class BasicDataProcessFn implements Function<String[], BasicData> {
+public class BasicDataProcessFn implements Function<CsvRecord, BasicData> {
     @Override
-    public BasicData apply(String[] strings) {
-        return new BasicData(strings[2],strings[1],strings[3] );
+    public BasicData apply(CsvRecord record) {
+        return new BasicData(record.get(2), record.get(1), record.get(3));
     }
 }
@@ -3,24 +3,34 @@ package net.mls.pipeline.feature;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import net.mls.pipeline.common.avro.BasicData;
+import net.mls.pipeline.common.csv.CsvReader;
+import net.mls.pipeline.common.csv.CsvRecord;
 import net.mls.pipeline.common.util.InputDataTransform;
 import net.mls.pipeline.common.util.MLSPipelinesOptions;
+import net.mls.pipeline.common.util.OutputManifest;
 import net.mls.pipeline.feature.avro.DataModel;
 import net.mls.pipeline.feature.avro.IOSReview;
 import net.mls.pipeline.feature.fn.DataModelProcessFn;
-import net.mls.pipeline.feature.fn.DataModelStringifyFn;
 import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.coders.AvroCoder;
 import org.apache.beam.sdk.coders.CoderRegistry;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.values.KV;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
 
 public class FeaturePipeline {
+    private static final Logger LOG = LoggerFactory.getLogger(FeaturePipeline.class);
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
 
 
         Config conf = ConfigFactory.load();
@@ -43,11 +53,43 @@ public class FeaturePipeline {
         String outputFile = Optional.ofNullable(options.getOutputFile())
                 .orElseGet(() -> conf.getString("s3.outputFile"));
 
-        p.apply(new InputDataTransform(inputFile, bucket))
+        boolean concatenate = Optional.ofNullable(options.getConcatenateOutput())
+                .orElse(!options.getIncremental());
+        OutputDataModelTransform output = new OutputDataModelTransform(outputFile, bucket,
+                OutputDataModelTransform.Format.valueOf(options.getDataFormat().toUpperCase()),
+                concatenate);
+        InputDataTransform input;
+        if (options.getIncremental()) {
+            // only inputs missing from the output manifest, or rewritten since, are read
+            OutputManifest manifest = OutputManifest.read(bucket, outputFile + OutputManifest.SUFFIX);
+            Map<String, String> newInputs = new TreeMap<>();
+            InputDataTransform.listInputs(bucket, inputFile).forEach((key, etag) -> {
+                if (!manifest.isProcessed(key, etag)) {
+                    newInputs.put(key, etag);
+                }
+            });
+            if (newInputs.isEmpty()) {
+                LOG.info("No new input under {} since the last run", inputFile);
+                return;
+            }
+            LOG.info("Processing {} new input objects under {}", newInputs.size(), inputFile);
+            input = InputDataTransform.ofKeys(new ArrayList<>(newInputs.keySet()), bucket, options.getMaxReadConcurrency());
+            output.withIncrementalInputs(newInputs);
+        } else if (inputFile.endsWith(OutputManifest.SUFFIX)) {
+            input = new InputDataTransform(inputFile, bucket, options.getMaxReadConcurrency());
+        } else {
+            // record what a full run read too, so the next incremental run can start from it
+            Map<String, String> inputs = InputDataTransform.listInputs(bucket, inputFile);
+            input = InputDataTransform.ofKeys(new ArrayList<>(inputs.keySet()), bucket, options.getMaxReadConcurrency());
+            output.withInputs(inputs);
+        }
+        if (options.getMultiLineRecords()) {
+            input.withMultiLineRecords();
+        }
+        p.apply(input.keyedLines())
                 //AvroIO.read(BasicData.class).from("src/main/resources/data-output.avro"))
                 .apply(ParDo.of(new BasicDataProcessFn()))
-                .apply(ParDo.of(new CSVStringifyFn()))
-                .apply(new OutputDataModelTransform(outputFile, bucket));
+                .apply(output);
         //TextIO.write().to("feature-pipeline/src/main/resources/data-model.csv").withoutSharding());
 
         try {
@@ -59,27 +101,25 @@ public class FeaturePipeline {
 
     }
 
-    static class BasicDataProcessFn extends DoFn<String, DataModel> {
+    static class BasicDataProcessFn extends DoFn<KV<String, String>, KV<String, DataModel>> {
+        private transient CsvReader csv;
+
+        @Setup
+        public void setup() {
+            csv = new CsvReader();
+        }
+
         @DoFn.ProcessElement
         public void processElement(ProcessContext c) {
-            String[] line = c.element().split(",");
-            IOSReview review = new IOSReview(line[0].trim(), line[3].trim(), line[2].trim(), line[1].trim());
+            CsvRecord line = csv.read(c.element().getValue());
+            IOSReview review = new IOSReview(line.get(0).trim(), line.get(3).trim(), line.get(2).trim(), line.get(1).trim());
             if(!review.getBody().toString().isEmpty()) {
                 DataModelProcessFn fn = new DataModelProcessFn();
-                c.output(fn.apply(review));
+                c.output(KV.of(c.element().getKey(), fn.apply(review)));
             }
         }
     }
 
-    static class CSVStringifyFn extends DoFn<DataModel, String> {
-        @DoFn.ProcessElement
-        public void processElement(ProcessContext c) {
-            DataModel dataModel = c.element();
-            DataModelStringifyFn fn = new DataModelStringifyFn();
-            c.output(fn.apply(dataModel));
-        }
-    }
-
 
 
 }
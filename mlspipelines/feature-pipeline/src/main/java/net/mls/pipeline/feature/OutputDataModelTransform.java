@@ -1,46 +1,373 @@
 package net.mls.pipeline.feature;
 
+import com.amazonaws.services.s3.model.PartETag;
+import net.mls.pipeline.common.util.OutputManifest;
 import net.mls.pipeline.common.util.S3Client;
-import net.mls.pipeline.feature.fn.AggregateCSVStringsFn;
+import net.mls.pipeline.common.util.S3OutputStream;
+import net.mls.pipeline.feature.avro.DataModel;
+import net.mls.pipeline.feature.fn.DataModelStringifyFn;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.transforms.Create;
 import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.Flatten;
 import org.apache.beam.sdk.transforms.GroupByKey;
 import org.apache.beam.sdk.transforms.PTransform;
 import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.WithKeys;
+import org.apache.beam.sdk.transforms.windowing.GlobalWindow;
 import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.PCollectionList;
 import org.apache.beam.sdk.values.PDone;
+import org.apache.commons.io.IOUtils;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Writes data models, keyed by the input they were read from, to S3 as shards, one per bundle and
+ * input, streamed through multipart upload by whichever worker processed the bundle. Shards are CSV lines or, with {@link Format#AVRO},
+ * deflate-compressed Avro container files that stay splittable and are read back without a text
+ * round trip. Only the shard keys and sizes are gathered in one place, to write a manifest at
+ * {@code <outputFile>.manifest} listing every shard that was committed and the input it holds. With {@code concatenate}
+ * CSV shards are also joined server-side into {@code outputFile} for consumers that expect a
+ * single object; Avro container files cannot be joined byte-wise, so Avro output is read through
+ * the manifest.
+ * <p>
+ * {@link #withInputs} records the inputs a run processed alongside its shards in the same PUT, so
+ * the next incremental run can skip them. {@link #withIncrementalInputs} also appends the shards
+ * to those already in the manifest, replacing the shards of any input processed again. The
+ * manifest is written even when the run produced no rows. Concatenating rejoins every shard of every run, so incremental callers usually leave it
+ * off and read the manifest.
+ */
+public class OutputDataModelTransform extends PTransform<PCollection<KV<String, DataModel>>, PDone> {
+    private static final long MAX_COPY_PART_SIZE = 5L * 1024 * 1024 * 1024;
+    private static final KV<String, KV<String, Long>> NO_SHARD = KV.of("", KV.of("", -1L));
+
+    public enum Format {
+        CSV,
+        AVRO
+    }
 
-public class OutputDataModelTransform extends PTransform<PCollection<String>, PDone> {
     private String outputFile;
     private String bucket;
+    private Format format;
+    private boolean concatenate;
+    private TreeMap<String, String> inputs;
+    private boolean incremental;
 
     public OutputDataModelTransform(String outputFile, String bucket) {
+        this(outputFile, bucket, Format.CSV, true);
+    }
+
+    public OutputDataModelTransform(String outputFile, String bucket, Format format, boolean concatenate) {
         this.outputFile = outputFile;
         this.bucket = bucket;
+        this.format = format;
+        this.concatenate = concatenate && format == Format.CSV;
+    }
+
+    /**
+     * @param inputs the keys and ETags of the inputs this run reads
+     */
+    public OutputDataModelTransform withInputs(Map<String, String> inputs) {
+        this.inputs = new TreeMap<>(inputs);
+        return this;
+    }
+
+    /**
+     * @param inputs the keys and ETags of the inputs this run reads
+     */
+    public OutputDataModelTransform withIncrementalInputs(Map<String, String> inputs) {
+        this.incremental = true;
+        return withInputs(inputs);
     }
 
     @Override
-    public PDone expand(PCollection<String> csvStrings) {
-        csvStrings
-                .apply(ParDo.of(new StringToKVFn()))
+    public PDone expand(PCollection<KV<String, DataModel>> dataModels) {
+        String prefix = outputFile + "-shards/";
+        WriteShardFn writeShard = format == Format.AVRO
+                ? new AvroShardFn(bucket, prefix)
+                : new CsvShardFn(bucket, prefix);
+        KvCoder<String, KV<String, Long>> shardCoder = KvCoder.of(StringUtf8Coder.of(),
+                KvCoder.of(StringUtf8Coder.of(), VarLongCoder.of()));
+        PCollection<KV<String, KV<String, Long>>> shards = dataModels
+                .apply("WriteShards", ParDo.of(writeShard))
+                .setCoder(shardCoder);
+        // the manifest is written even if no bundle produced a shard: an incremental run must
+        // still record inputs that held no rows, or they would be read again every run
+        PCollection<KV<String, KV<String, Long>>> seed = dataModels.getPipeline()
+                .apply("ManifestSeed", Create.of(NO_SHARD).withCoder(shardCoder));
+        PCollectionList.of(shards).and(seed)
+                .apply(Flatten.pCollections())
+                .apply(WithKeys.of("manifest"))
                 .apply(GroupByKey.create())
-                .apply(ParDo.of(new AggregateCSVStringsFn()))
-                .apply("WriteDataModel", ParDo.of(new S3UploadFn()));
-        return PDone.in(csvStrings.getPipeline());
+                .apply("WriteManifest", ParDo.of(new WriteManifestFn(bucket, outputFile, concatenate, inputs, incremental)));
+        return PDone.in(dataModels.getPipeline());
+    }
+
+    /**
+     * Streams the records of each bundle into a new shard, rolling over to another one whenever
+     * the input they were read from changes, and emits each shard's input, key and size once the
+     * upload is complete. Records of one input arrive together, as they are read range by range,
+     * so a shard usually holds a whole range. A retried bundle writes fresh shards; the failed
+     * attempt's uploads are aborted, or left unlisted in the manifest if already completed.
+     */
+    abstract static class WriteShardFn extends DoFn<KV<String, DataModel>, KV<String, KV<String, Long>>> {
+        private final String bucket;
+        private final String prefix;
+        private final String extension;
+        private transient S3OutputStream out;
+        private transient String input;
+        private transient boolean open;
+
+        WriteShardFn(String bucket, String prefix, String extension) {
+            this.bucket = bucket;
+            this.prefix = prefix;
+            this.extension = extension;
+        }
+
+        abstract void open(OutputStream out) throws IOException;
+
+        abstract void write(DataModel dataModel) throws IOException;
+
+        /**
+         * Flushes and closes the stream passed to {@link #open}.
+         */
+        abstract void close() throws IOException;
+
+        @StartBundle
+        public void startBundle() {
+            abort();
+        }
+
+        @ProcessElement
+        public void processElement(ProcessContext c) throws IOException {
+            String elementInput = c.element().getKey();
+            if (open && !input.equals(elementInput)) {
+                c.output(finishShard());
+            }
+            if (!open) {
+                out = new S3OutputStream(bucket, prefix + "part-" + UUID.randomUUID() + extension);
+                open(out);
+                input = elementInput;
+                open = true;
+            }
+            write(c.element().getValue());
+        }
+
+        @FinishBundle
+        public void finishBundle(FinishBundleContext c) throws IOException {
+            if (!open) {
+                return;
+            }
+            c.output(finishShard(), GlobalWindow.INSTANCE.maxTimestamp(), GlobalWindow.INSTANCE);
+        }
+
+        private KV<String, KV<String, Long>> finishShard() throws IOException {
+            close();
+            KV<String, KV<String, Long>> shard = KV.of(input, KV.of(out.getKey(), out.getBytesWritten()));
+            open = false;
+            out = null;
+            input = null;
+            return shard;
+        }
+
+        @Teardown
+        public void teardown() {
+            abort();
+        }
+
+        private void abort() {
+            if (out != null) {
+                out.abort();
+            }
+            open = false;
+            out = null;
+            input = null;
+        }
+    }
+
+    static class CsvShardFn extends WriteShardFn {
+        private static final int BUFFER_SIZE = 64 * 1024;
+
+        private transient DataModelStringifyFn stringify;
+        private transient Writer writer;
+
+        CsvShardFn(String bucket, String prefix) {
+            super(bucket, prefix, ".csv");
+        }
+
+        @Override
+        void open(OutputStream out) {
+            stringify = new DataModelStringifyFn();
+            writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        }
+
+        @Override
+        void write(DataModel dataModel) throws IOException {
+            writer.write(stringify.apply(dataModel));
+            writer.write('\n');
+        }
+
+        @Override
+        void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    static class AvroShardFn extends WriteShardFn {
+        private transient DataFileWriter<DataModel> writer;
+
+        AvroShardFn(String bucket, String prefix) {
+            super(bucket, prefix, ".avro");
+        }
+
+        @Override
+        void open(OutputStream out) throws IOException {
+            writer = new DataFileWriter<>(new SpecificDatumWriter<>(DataModel.class));
+            writer.setCodec(CodecFactory.deflateCodec(6));
+            writer.create(DataModel.getClassSchema(), out);
+        }
+
+        @Override
+        void write(DataModel dataModel) throws IOException {
+            writer.append(dataModel);
+        }
+
+        @Override
+        void close() throws IOException {
+            writer.close();
+        }
     }
 
-    private class S3UploadFn extends DoFn<String, Void> {
-        @DoFn.ProcessElement
-        public void processElement(ProcessContext c) throws Exception {
-            S3Client.uploadFromString(bucket, outputFile, c.element());
+    static class WriteManifestFn extends DoFn<KV<String, Iterable<KV<String, KV<String, Long>>>>, Void> {
+        private final String bucket;
+        private final String outputFile;
+        private final boolean concatenate;
+        private final TreeMap<String, String> inputs;
+        private final boolean incremental;
+
+        WriteManifestFn(String bucket, String outputFile, boolean concatenate,
+                        TreeMap<String, String> inputs, boolean incremental) {
+            this.bucket = bucket;
+            this.outputFile = outputFile;
+            this.concatenate = concatenate;
+            this.inputs = inputs;
+            this.incremental = incremental;
+        }
+
+        @ProcessElement
+        public void processElement(ProcessContext c) throws IOException {
+            String manifestKey = outputFile + OutputManifest.SUFFIX;
+            OutputManifest manifest = new OutputManifest();
+            if (incremental) {
+                OutputManifest previous = OutputManifest.read(bucket, manifestKey);
+                // a manifest that records no inputs cannot be extended
+                if (!previous.getInputs().isEmpty()) {
+                    manifest = previous;
+                }
+            }
+            if (inputs != null) {
+                for (Map.Entry<String, String> input : inputs.entrySet()) {
+                    // a rewritten input's earlier shards are superseded by this run's
+                    manifest.removeShardsOf(input.getKey());
+                    manifest.addInput(input.getKey(), input.getValue());
+                }
+            }
+
+            List<KV<String, KV<String, Long>>> shards = new ArrayList<>();
+            for (KV<String, KV<String, Long>> shard : c.element().getValue()) {
+                if (!NO_SHARD.equals(shard)) {
+                    shards.add(shard);
+                }
+            }
+            shards.sort(Comparator.comparing(shard -> shard.getValue().getKey()));
+            for (KV<String, KV<String, Long>> shard : shards) {
+                manifest.addShard(shard.getValue().getKey(), shard.getValue().getValue(), shard.getKey());
+            }
+            manifest.write(bucket, manifestKey);
+
+            if (concatenate) {
+                concatenate(bucket, manifest.getShards(), outputFile);
+            }
+        }
+    }
+
+    /**
+     * Joins the shards into {@code target}. Shards of at least the minimum part size are copied
+     * in as parts inside S3; smaller ones are downloaded and packed together into uploaded parts.
+     * Shards hold whole lines, so their order in the result does not matter.
+     */
+    static void concatenate(String bucket, List<OutputManifest.Shard> shards, String target) throws IOException {
+        long total = 0;
+        for (OutputManifest.Shard shard : shards) {
+            total += shard.getBytes();
+        }
+        ByteArrayOutputStream small = new ByteArrayOutputStream();
+        if (total < S3OutputStream.MIN_PART_SIZE) {
+            for (OutputManifest.Shard shard : shards) {
+                download(bucket, shard.getKey(), small);
+            }
+            S3Client.upload(bucket, target, small.toByteArray(), small.size());
+            return;
+        }
+
+        String uploadId = S3Client.startMultipart(bucket, target);
+        try {
+            List<PartETag> parts = new ArrayList<>();
+            for (OutputManifest.Shard shard : shards) {
+                long size = shard.getBytes();
+                if (size >= S3OutputStream.MIN_PART_SIZE) {
+                    // copy parts are capped at 5 GB; cut larger shards into equal ranges
+                    long pieces = (size + MAX_COPY_PART_SIZE - 1) / MAX_COPY_PART_SIZE;
+                    long pieceSize = (size + pieces - 1) / pieces;
+                    for (long first = 0; first < size; first += pieceSize) {
+                        long last = Math.min(first + pieceSize, size) - 1;
+                        parts.add(S3Client.copyPart(bucket, shard.getKey(), first, last,
+                                bucket, target, uploadId, parts.size() + 1));
+                    }
+                } else {
+                    download(bucket, shard.getKey(), small);
+                    if (small.size() >= S3OutputStream.MIN_PART_SIZE) {
+                        parts.add(S3Client.uploadPart(bucket, target, uploadId, parts.size() + 1,
+                                small.toByteArray(), small.size()));
+                        small.reset();
+                    }
+                }
+            }
+            // the last part is the only one allowed below the minimum size
+            if (small.size() > 0) {
+                parts.add(S3Client.uploadPart(bucket, target, uploadId, parts.size() + 1,
+                        small.toByteArray(), small.size()));
+            }
+            S3Client.completeMultipart(bucket, target, uploadId, parts);
+        } catch (RuntimeException | IOException e) {
+            S3Client.abortMultipart(bucket, target, uploadId);
+            throw e;
         }
     }
 
-    private class StringToKVFn extends DoFn<String, KV<String,String>> {
-        @DoFn.ProcessElement
-        public void processElement(ProcessContext c) throws Exception {
-            c.output(KV.of("GroupByKey", c.element()));
+    private static void download(String bucket, String key, ByteArrayOutputStream into) throws IOException {
+        try (InputStream in = S3Client.readFromString(bucket, key)) {
+            IOUtils.copy(in, into);
         }
     }
-}
\ No newline at end of file
+}
@@ -1,5 +1,6 @@
 package net.mls.pipeline.feature.fn;
 
+import net.mls.pipeline.common.csv.CsvWriter;
 import net.mls.pipeline.feature.avro.DataModel;
 
 import java.util.function.Function;
@@ -8,8 +9,22 @@ import java.util.function.Function;
  * Created by char on 1/31/18.
  */
 public class DataModelStringifyFn implements Function<DataModel, String> {
+    private final CsvWriter csv = new CsvWriter();
+
     @Override
     public String apply(DataModel dataModel) {
-        return dataModel.getText()+","+dataModel.getAfterRelease()+","+dataModel.getVersion()+","+dataModel.getLabel();
+        return csv.field(singleLine(dataModel.getText()))
+                .field(dataModel.getAfterRelease())
+                .field(dataModel.getVersion())
+                .field(dataModel.getLabel())
+                .endRecord();
+    }
+
+    /**
+     * One record per line keeps the output splittable. Line breaks and spaces are both {@code \s}
+     * to the tokenizer, so a space in place of each line break changes no term.
+     */
+    private static String singleLine(CharSequence text) {
+        return text == null ? null : text.toString().replace('\r', ' ').replace('\n', ' ');
     }
 }
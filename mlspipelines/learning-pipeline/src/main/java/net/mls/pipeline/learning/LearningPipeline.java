@@ -3,25 +3,35 @@ package net.mls.pipeline.learning;
 import com.google.common.collect.Lists;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
+import net.mls.pipeline.common.csv.CsvReader;
+import net.mls.pipeline.common.csv.CsvRecord;
+import net.mls.pipeline.common.util.AvroInputTransform;
 import net.mls.pipeline.common.util.InputDataTransform;
 import net.mls.pipeline.common.util.MLSPipelinesOptions;
 import net.mls.pipeline.common.util.S3Client;
+import net.mls.pipeline.learning.util.CompactModelFile;
+import net.mls.pipeline.learning.util.FeaturizerTransformer;
 import net.mls.pipeline.learning.util.ZipFile;
+import org.apache.avro.generic.GenericRecord;
 import org.apache.beam.sdk.Pipeline;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.SerializableCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
 import org.apache.beam.sdk.options.PipelineOptions;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.beam.sdk.transforms.GroupByKey;
 import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.SerializableFunction;
 import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
 import org.apache.spark.SparkConf;
 import org.apache.spark.api.java.JavaSparkContext;
 import org.apache.spark.ml.PipelineModel;
 import org.apache.spark.ml.PipelineStage;
+import org.apache.spark.ml.Transformer;
 import org.apache.spark.ml.classification.LogisticRegression;
-import org.apache.spark.ml.feature.HashingTF;
 import org.apache.spark.ml.feature.IDF;
-import org.apache.spark.ml.feature.Tokenizer;
 import org.apache.spark.sql.*;
 import org.apache.spark.sql.types.DataTypes;
 import org.apache.spark.sql.types.Metadata;
@@ -30,6 +40,7 @@ import org.apache.spark.sql.types.StructType;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 
@@ -50,13 +61,21 @@ public class LearningPipeline {
         String outputFile = Optional.ofNullable(options.getOutputFile())
                 .orElseGet(() -> conf.getString("s3.outputFile"));
 
-        p.apply(new InputDataTransform(inputFile, bucket))
-                .apply(ParDo.of(new RowProcessFn()))
-                .apply(GroupByKey.create())
+        PCollection<KV<String, Row>> rows;
+        if ("avro".equalsIgnoreCase(options.getDataFormat())) {
+            // records arrive typed; no text parsing between the feature and learning stages
+            rows = p.apply(new AvroInputTransform<>(inputFile, bucket, new DataModelRowFn(),
+                    KvCoder.of(StringUtf8Coder.of(), SerializableCoder.of(Row.class))));
+        } else {
+            InputDataTransform input = new InputDataTransform(inputFile, bucket, options.getMaxReadConcurrency());
+            if (options.getMultiLineRecords()) {
+                input.withMultiLineRecords();
+            }
+            rows = p.apply(input).apply(ParDo.of(new RowProcessFn()));
+        }
+        rows.apply(GroupByKey.create())
                 .apply(ParDo.of(new AggregateRowFn()))
                 .apply(ParDo.of(new LogisticRegressionFn(outputFile, bucket)));
-
-        //p.apply("LogisticRegression", new LogisticRegressionTx(options.getBucket(), options.getOutputFile(), options.getInputFile()));
         try {
             p.run().waitUntilFinish();
         } catch (Exception e) {
@@ -75,14 +94,38 @@ public class LearningPipeline {
     }
 
     static class RowProcessFn extends DoFn<String, KV<String, Row>>{
+        private transient CsvReader csv;
+
+        @Setup
+        public void setup() {
+            csv = new CsvReader();
+        }
+
         @ProcessElement
         public void processElement(ProcessContext c) throws Exception {
-            String[] line = c.element().split(",");
-            Row r = RowFactory.create(line[0], Boolean.parseBoolean(line[1]), line[2], Double.parseDouble(line[3]));
+            CsvRecord line = csv.read(c.element());
+            Row r = RowFactory.create(line.get(0), line.getBoolean(1), line.get(2), line.getDouble(3));
             c.output(KV.of("Test", r));
         }
     }
 
+    /**
+     * Maps a DataModel record, read with the schema stored in its file, to a training row.
+     */
+    static class DataModelRowFn implements SerializableFunction<GenericRecord, KV<String, Row>> {
+        @Override
+        public KV<String, Row> apply(GenericRecord record) {
+            Object text = record.get("text");
+            Object version = record.get("version");
+            Object label = record.get("label");
+            Row r = RowFactory.create(text == null ? "" : text.toString(),
+                    Boolean.TRUE.equals(record.get("afterRelease")),
+                    version == null ? "" : version.toString(),
+                    label == null ? 0.0 : ((Number) label).doubleValue());
+            return KV.of("Test", r);
+        }
+    }
+
     static class LogisticRegressionFn extends DoFn<List<Row>, Void>{
 
         private String output;
@@ -115,18 +158,21 @@ public class LearningPipeline {
 
             Dataset<Row> data = spark.createDataFrame(c.element(), schema);
 
-            Tokenizer tokenizer = new Tokenizer().setInputCol("review").setOutputCol("words");
-            HashingTF hashingTF = new HashingTF().setInputCol("words").setOutputCol("rawFeatures")
-                                        .setNumFeatures(1000);
+            // the featurizer serving scores with, in place of Tokenizer and HashingTF
+            FeaturizerTransformer featurizer = new FeaturizerTransformer("review", "rawFeatures", 1000, false);
             IDF idf = new IDF().setInputCol("rawFeatures").setOutputCol("features").setMinDocFreq(10);
             LogisticRegression lr = new LogisticRegression()
                                         .setMaxIter(10)
                                         .setRegParam(0.01);
 
             org.apache.spark.ml.Pipeline pipeline = new org.apache.spark.ml.Pipeline()
-                    .setStages(new PipelineStage[]{tokenizer, hashingTF, idf, lr});
+                    .setStages(new PipelineStage[]{featurizer, idf, lr});
 
-            PipelineModel toSave = pipeline.fit(data);
+            // published with the equivalent Spark stages, so the model loads wherever Spark does
+            Transformer[] fitted = pipeline.fit(data).stages();
+            Transformer[] sparkStages = featurizer.sparkStages();
+            PipelineModel toSave = new PipelineModel(pipeline.uid(),
+                    Arrays.asList(sparkStages[0], sparkStages[1], fitted[1], fitted[2]));
 
             try {
                 String tmp = System.getProperty("java.io.tmpdir") + output.substring(output.lastIndexOf('/'));
@@ -137,6 +183,12 @@ public class LearningPipeline {
                 S3Client.upload(bucket, output, zipFile);
                 zipFile.delete();
 
+                // serving looks for the compact file next to the zip, named <model>.lrm
+                String compactKey = output.replaceFirst("\\.zip$", "") + ".lrm";
+                File compactFile = CompactModelFile.write(toSave, tmp.replaceFirst("\\.zip$", "") + ".lrm");
+                S3Client.upload(bucket, compactKey, compactFile);
+                compactFile.delete();
+
             } catch (IOException e) {
                 e.printStackTrace();
                 throw new RuntimeException();
@@ -144,58 +196,4 @@ public class LearningPipeline {
 
         }
     }
-
-//    static class LogisticRegressionTx extends PTransform<PBegin, PDone> {
-//        private String bucket;
-//        private String out;
-//        private String in;
-//        LogisticRegressionTx(String bucket, String out, String in) {
-//            this.bucket = bucket;
-//            this.out = out;
-//            this.in = in;
-//        }
-//        SparkSession spark = SparkSession.builder().appName("logisticRegression").master("local").config("spark.testing.memory", "471859200").getOrCreate();
-//
-//        @Override
-//        public PDone expand(PBegin input) {
-//
-//            spark.sparkContext().hadoopConfiguration().set("fs.s3n.awsAccessKeyId", conf.getString("s3Config.accessKey"));
-//            spark.sparkContext().hadoopConfiguration().set("fs.s3n.awsSecretAccessKey",  conf.getString("s3Config.secretKey"));
-//
-//            String buck = Optional.ofNullable(bucket).orElseGet(() -> conf.getString("output.s3.path"));
-//
-//            String inFile = String.format("s3n://%s/%s", buck,
-//                    Optional.ofNullable(in).orElseGet(() -> conf.getString("inputFile")));
-//            Dataset<Row> data = spark.read().option("header", true).option("inferSchema", true).option("encoding", "UTF-8")
-//                    .csv(inFile); // "s3n://argo-repo-npq123/TestDataModel.csv"
-//
-//            Tokenizer tokenizer = new Tokenizer().setInputCol("review").setOutputCol("words");
-//            HashingTF hashingTF = new HashingTF().setInputCol("words").setOutputCol("rawFeatures");
-//            IDF idf = new IDF().setInputCol("rawFeatures").setOutputCol("features").setMinDocFreq(10);
-//            LogisticRegression lr = new LogisticRegression();
-//
-//            org.apache.spark.ml.Pipeline pipeline = new org.apache.spark.ml.Pipeline()
-//                    .setStages(new PipelineStage[]{tokenizer, hashingTF, idf, lr});
-//
-//            PipelineModel toSave = pipeline.fit(data);
-//            try {
-//                final String outputPath = conf.getString("outputFile");
-//                String tmp = System.getProperty("java.io.tmpdir") + outputPath.substring(outputPath.lastIndexOf('/'));
-//                toSave.write().overwrite().save(tmp);
-//                File zipFile = ZipFile.pack(tmp);
-//                String output = Optional.ofNullable(out).orElseGet(() -> conf.getString("outputFile"));
-//
-//                S3Client.upload(buck, output, zipFile);
-//                zipFile.delete();
-//
-//            } catch (IOException e) {
-//                e.printStackTrace();
-//                throw new RuntimeException();
-//            }
-//
-//            return PDone.in(input.getPipeline());
-//        }
-//    }
-
-
 }
@@ -0,0 +1,90 @@
+package net.mls.pipeline.learning.util;
+
+import org.apache.spark.ml.PipelineModel;
+import org.apache.spark.ml.Transformer;
+import org.apache.spark.ml.classification.LogisticRegressionModel;
+import org.apache.spark.ml.feature.HashingTF;
+import org.apache.spark.ml.feature.IDFModel;
+import org.apache.spark.ml.feature.Tokenizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Writes the fitted Tokenizer/HashingTF/IDF/LogisticRegression pipeline as a single
+ * little-endian file that model-serving can memory-map without a Spark runtime:
+ *
+ * <pre>
+ * offset  size      field
+ * 0       4         magic "LRM1"
+ * 4       4         format version
+ * 8       4         flags (bit 0: binary term frequencies)
+ * 12      4         numFeatures (n)
+ * 16      8         intercept
+ * 24      8         threshold
+ * 32      8 * n     IDF weights
+ * 32+8n   8 * n     LR coefficients
+ * 32+16n  8         CRC32 of all preceding bytes
+ * </pre>
+ *
+ * Weights are stored as doubles rather than floats so scoring stays bit-identical to Spark.
+ */
+public final class CompactModelFile {
+    public static final int MAGIC = 0x314D524C; // "LRM1" read little-endian
+    public static final int VERSION = 1;
+    public static final int FLAG_BINARY = 1;
+    public static final int HEADER_SIZE = 32;
+
+    public static File write(PipelineModel model, String path) throws IOException {
+        Transformer[] stages = model.stages();
+        if (stages.length != 4
+                || !(stages[0] instanceof Tokenizer)
+                || !(stages[1] instanceof HashingTF)
+                || !(stages[2] instanceof IDFModel)
+                || !(stages[3] instanceof LogisticRegressionModel)) {
+            throw new IllegalArgumentException("Unsupported pipeline layout: " + Arrays.toString(stages));
+        }
+        HashingTF hashingTF = (HashingTF) stages[1];
+        double[] idf = ((IDFModel) stages[2]).idf().toArray();
+        LogisticRegressionModel lr = (LogisticRegressionModel) stages[3];
+        double[] coefficients = lr.coefficients().toArray();
+        int numFeatures = hashingTF.getNumFeatures();
+        long size = HEADER_SIZE + 16L * numFeatures + 8;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("numFeatures " + numFeatures + " is too large for a compact model file");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(hashingTF.getBinary() ? FLAG_BINARY : 0)
+                .putInt(numFeatures)
+                .putDouble(lr.intercept())
+                .putDouble(lr.getThreshold());
+        for (double weight : idf) {
+            buffer.putDouble(weight);
+        }
+        for (double coefficient : coefficients) {
+            buffer.putDouble(coefficient);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putLong(crc.getValue());
+        buffer.flip();
+
+        File file = new File(path);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,114 @@
+package net.mls.pipeline.learning.util;
+
+import net.mls.pipeline.common.feature.HashingFeaturizer;
+import net.mls.pipeline.common.feature.SparseTermVector;
+import org.apache.spark.ml.Transformer;
+import org.apache.spark.ml.feature.HashingTF;
+import org.apache.spark.ml.feature.Tokenizer;
+import org.apache.spark.ml.linalg.SQLDataTypes;
+import org.apache.spark.ml.linalg.Vector;
+import org.apache.spark.ml.linalg.Vectors;
+import org.apache.spark.ml.param.ParamMap;
+import org.apache.spark.ml.util.Identifiable$;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.api.java.UDF1;
+import org.apache.spark.sql.functions;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.Metadata;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+
+/**
+ * Featurizes reviews for training with the {@link HashingFeaturizer} model-serving scores with,
+ * in one pass per row and without the token arrays and term maps of Spark's Tokenizer and
+ * HashingTF. It only exists while fitting: {@link #sparkStages} returns the equivalent Spark
+ * stages to publish in its place, so a saved model loads anywhere Spark does.
+ */
+public final class FeaturizerTransformer extends Transformer {
+    private final String uid;
+    private final String inputCol;
+    private final String outputCol;
+    private final int numFeatures;
+    private final boolean binary;
+
+    public FeaturizerTransformer(String inputCol, String outputCol, int numFeatures, boolean binary) {
+        this(Identifiable$.MODULE$.randomUID("featurizer"), inputCol, outputCol, numFeatures, binary);
+    }
+
+    private FeaturizerTransformer(String uid, String inputCol, String outputCol, int numFeatures, boolean binary) {
+        this.uid = uid;
+        this.inputCol = inputCol;
+        this.outputCol = outputCol;
+        this.numFeatures = numFeatures;
+        this.binary = binary;
+    }
+
+    /**
+     * Tokenizer and HashingTF stages computing the same column, to stand in for this one in a
+     * published model; {@code FeaturizerParityTest} holds the two to the same vectors.
+     */
+    public Transformer[] sparkStages() {
+        return new Transformer[]{
+                new Tokenizer().setInputCol(inputCol).setOutputCol("words"),
+                new HashingTF().setInputCol("words").setOutputCol(outputCol)
+                        .setNumFeatures(numFeatures)
+                        .setBinary(binary)
+        };
+    }
+
+    @Override
+    public Dataset<Row> transform(Dataset<?> dataset) {
+        transformSchema(dataset.schema());
+        String udf = "featurize_" + uid;
+        dataset.sparkSession().udf().register(udf, new FeaturizeFn(numFeatures, binary), SQLDataTypes.VectorType());
+        return dataset.withColumn(outputCol, functions.callUDF(udf, dataset.col(inputCol)));
+    }
+
+    @Override
+    public StructType transformSchema(StructType schema) {
+        if (!schema.apply(inputCol).dataType().sameType(DataTypes.StringType)) {
+            throw new IllegalArgumentException("Column " + inputCol + " must be a string");
+        }
+        return schema.add(new StructField(outputCol, SQLDataTypes.VectorType(), false, Metadata.empty()));
+    }
+
+    @Override
+    public FeaturizerTransformer copy(ParamMap extra) {
+        return new FeaturizerTransformer(uid, inputCol, outputCol, numFeatures, binary);
+    }
+
+    @Override
+    public String uid() {
+        return uid;
+    }
+
+    static final class FeaturizeFn implements UDF1<String, Vector> {
+        private static final ThreadLocal<SparseTermVector> TERMS = ThreadLocal.withInitial(SparseTermVector::new);
+
+        private final int numFeatures;
+        private final boolean binary;
+        private transient HashingFeaturizer featurizer;
+
+        FeaturizeFn(int numFeatures, boolean binary) {
+            this.numFeatures = numFeatures;
+            this.binary = binary;
+        }
+
+        @Override
+        public Vector call(String review) {
+            if (featurizer == null) {
+                featurizer = new HashingFeaturizer(numFeatures, binary);
+            }
+            SparseTermVector terms = TERMS.get();
+            featurizer.featurize(review, terms);
+            int[] indices = new int[terms.size()];
+            double[] values = new double[terms.size()];
+            for (int k = 0; k < indices.length; k++) {
+                indices[k] = terms.indexAt(k);
+                values[k] = terms.valueAt(k);
+            }
+            return Vectors.sparse(numFeatures, indices, values);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package net.mls.pipeline.learning.util;
+
+import net.mls.pipeline.common.feature.HashingFeaturizer;
+import net.mls.pipeline.common.feature.SparseTermVector;
+import org.apache.spark.ml.PipelineModel;
+import org.apache.spark.ml.Transformer;
+import org.apache.spark.ml.feature.HashingTF;
+import org.apache.spark.ml.linalg.SparseVector;
+import org.apache.spark.ml.linalg.Vector;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+
+/**
+ * Checks that {@link HashingFeaturizer} reproduces the fitted Tokenizer and HashingTF stages
+ * review by review, so models trained through {@link FeaturizerTransformer} and scored by
+ * model-serving's native engine agree with Spark.
+ */
+public final class FeaturizerParity {
+
+    /**
+     * @throws IllegalStateException on the first review whose term vector differs from Spark's
+     */
+    public static void verify(PipelineModel model, Dataset<Row> data, int maxRows) {
+        Transformer[] stages = model.stages();
+        HashingTF hashingTF = (HashingTF) stages[1];
+        HashingFeaturizer featurizer = new HashingFeaturizer(hashingTF.getNumFeatures(), hashingTF.getBinary());
+        SparseTermVector terms = new SparseTermVector();
+
+        Dataset<Row> hashed = hashingTF.transform(stages[0].transform(data.limit(maxRows)));
+        for (Row row : hashed.select("review", hashingTF.getOutputCol()).collectAsList()) {
+            String review = row.getString(0);
+            SparseVector expected = ((Vector) row.get(1)).toSparse();
+            featurizer.featurize(review, terms);
+            if (!matches(expected, terms)) {
+                throw new IllegalStateException("Featurizer diverges from HashingTF on \"" + review + "\": "
+                        + expected + " vs " + describe(terms));
+            }
+        }
+    }
+
+    private static boolean matches(SparseVector expected, SparseTermVector actual) {
+        int[] indices = expected.indices();
+        double[] values = expected.values();
+        if (indices.length != actual.size()) {
+            return false;
+        }
+        for (int k = 0; k < indices.length; k++) {
+            if (indices[k] != actual.indexAt(k)
+                    || Double.doubleToLongBits(values[k]) != Double.doubleToLongBits(actual.valueAt(k))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String describe(SparseTermVector terms) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int k = 0; k < terms.size(); k++) {
+            if (k > 0) {
+                sb.append(',');
+            }
+            sb.append(terms.indexAt(k)).append('=').append(terms.valueAt(k));
+        }
+        return sb.append(']').toString();
+    }
+}
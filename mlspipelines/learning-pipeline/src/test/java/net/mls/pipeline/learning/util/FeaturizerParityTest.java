@@ -0,0 +1,120 @@
+package net.mls.pipeline.learning.util;
+
+import org.apache.spark.ml.Pipeline;
+import org.apache.spark.ml.PipelineModel;
+import org.apache.spark.ml.PipelineStage;
+import org.apache.spark.ml.Transformer;
+import org.apache.spark.ml.feature.HashingTF;
+import org.apache.spark.ml.feature.RegexTokenizer;
+import org.apache.spark.ml.feature.Tokenizer;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the shared HashingFeaturizer with Spark's Tokenizer and HashingTF on reviews chosen
+ * for the rules it mirrors: whitespace runs, leading and trailing whitespace, every {@code \s}
+ * character, case mapping outside ASCII and UTF-8 tails of every length.
+ */
+public class FeaturizerParityTest {
+    private static final String[] REVIEWS = {
+            "Great movie, would watch again",
+            "",
+            "   ",
+            "  leading spaces",
+            "trailing spaces \t ",
+            "a  b   c",
+            "MiXeD CaSe WoRdS",
+            "tab\tnewline\ncarriage\r\nvertical\u000bform\ffeed",
+            "a ab abc abcd abcde abcdef abcdefg abcdefgh",
+            "\u0130stanbul \u00c7ILGIN",
+            "Stra\u00dfe GROSS",
+            "na\u00efve caf\u00e9",
+            "\u03a3\u0391\u03a3 \u039f\u0394\u039f\u03a3",
+            "emoji \ud83d\ude00 in the middle",
+            "non-breaking\u00a0space stays in the token"
+    };
+
+    private static SparkSession spark;
+    private static Dataset<Row> data;
+
+    @BeforeClass
+    public static void startSpark() {
+        spark = SparkSession.builder()
+                .appName("FeaturizerParityTest")
+                .master("local")
+                .config("spark.testing.memory", "471859200")
+                .getOrCreate();
+        List<Row> rows = new ArrayList<>();
+        for (String review : REVIEWS) {
+            rows.add(RowFactory.create(review));
+        }
+        StructType schema = new StructType(new StructField[]{
+                DataTypes.createStructField("review", DataTypes.StringType, false)
+        });
+        data = spark.createDataFrame(rows, schema);
+    }
+
+    @AfterClass
+    public static void stopSpark() {
+        spark.stop();
+    }
+
+    @Test
+    public void matchesHashingTFWithTheTrainingSettings() {
+        FeaturizerParity.verify(fit(tokenizer(), 1000, false), data, REVIEWS.length);
+    }
+
+    @Test
+    public void matchesHashingTFWithTheDefaultNumberOfFeatures() {
+        FeaturizerParity.verify(fit(tokenizer(), 1 << 18, false), data, REVIEWS.length);
+    }
+
+    @Test
+    public void matchesBinaryHashingTF() {
+        FeaturizerParity.verify(fit(tokenizer(), 1000, true), data, REVIEWS.length);
+    }
+
+    @Test
+    public void transformerMatchesTheSparkStagesItIsPublishedAs() {
+        assertSameFeatures(new FeaturizerTransformer("review", "rawFeatures", 1000, false));
+        assertSameFeatures(new FeaturizerTransformer("review", "rawFeatures", 1 << 18, false));
+        assertSameFeatures(new FeaturizerTransformer("review", "rawFeatures", 1000, true));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void detectsADifferentTokenizer() {
+        RegexTokenizer commas = new RegexTokenizer().setInputCol("review").setOutputCol("words").setPattern(",");
+        FeaturizerParity.verify(fit(commas, 1000, false), data, REVIEWS.length);
+    }
+
+    private static void assertSameFeatures(FeaturizerTransformer featurizer) {
+        Transformer[] stages = featurizer.sparkStages();
+        List<Row> expected = stages[1].transform(stages[0].transform(data)).select("rawFeatures").collectAsList();
+        List<Row> actual = featurizer.transform(data).select("rawFeatures").collectAsList();
+        assertEquals(expected, actual);
+    }
+
+    private static Tokenizer tokenizer() {
+        return new Tokenizer().setInputCol("review").setOutputCol("words");
+    }
+
+    private static PipelineModel fit(PipelineStage tokenizer, int numFeatures, boolean binary) {
+        HashingTF hashingTF = new HashingTF().setInputCol("words").setOutputCol("rawFeatures")
+                .setNumFeatures(numFeatures)
+                .setBinary(binary);
+        return new Pipeline().setStages(new PipelineStage[]{tokenizer, hashingTF}).fit(data);
+    }
+}
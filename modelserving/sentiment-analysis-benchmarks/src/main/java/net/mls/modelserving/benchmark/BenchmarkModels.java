@@ -0,0 +1,83 @@
+package net.mls.modelserving.benchmark;
+
+import org.apache.spark.ml.Pipeline;
+import org.apache.spark.ml.PipelineModel;
+import org.apache.spark.ml.PipelineStage;
+import org.apache.spark.ml.classification.LogisticRegression;
+import org.apache.spark.ml.feature.HashingTF;
+import org.apache.spark.ml.feature.IDF;
+import org.apache.spark.ml.feature.Tokenizer;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.Metadata;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fits the learning pipeline's Tokenizer/HashingTF/IDF/LogisticRegression model on the synthetic
+ * corpus and saves it to local disk, standing in for the artifact normally fetched from S3.
+ */
+final class BenchmarkModels {
+    static final int TRAINING_SIZE = 5000;
+    static final long SEED = 42L;
+
+    private static String modelPath;
+
+    private BenchmarkModels() {
+    }
+
+    static SparkSession spark() {
+        return SparkSession.builder()
+                .appName("sentiment-analysis-benchmarks")
+                .master("local")
+                .config("spark.testing.memory", "471859200")
+                .config("spark.ui.enabled", "false")
+                .getOrCreate();
+    }
+
+    static synchronized String modelPath() throws IOException {
+        if (modelPath == null) {
+            modelPath = fit(spark());
+        }
+        return modelPath;
+    }
+
+    private static String fit(SparkSession spark) throws IOException {
+        StructType schema = new StructType(new StructField[] {
+                new StructField("review", DataTypes.StringType, false, Metadata.empty()),
+                new StructField("afterRelease", DataTypes.BooleanType, false, Metadata.empty()),
+                new StructField("version", DataTypes.StringType, false, Metadata.empty()),
+                new StructField("label", DataTypes.DoubleType, false, Metadata.empty())
+        });
+        List<String> reviews = SyntheticCorpus.reviews(TRAINING_SIZE, SEED);
+        List<Row> rows = new ArrayList<>(reviews.size());
+        for (int i = 0; i < reviews.size(); i++) {
+            rows.add(RowFactory.create(reviews.get(i), false, "0", SyntheticCorpus.label(i)));
+        }
+        Dataset<Row> data = spark.createDataFrame(rows, schema);
+
+        Tokenizer tokenizer = new Tokenizer().setInputCol("review").setOutputCol("words");
+        HashingTF hashingTF = new HashingTF().setInputCol("words").setOutputCol("rawFeatures")
+                .setNumFeatures(1000);
+        IDF idf = new IDF().setInputCol("rawFeatures").setOutputCol("features").setMinDocFreq(10);
+        LogisticRegression lr = new LogisticRegression()
+                .setMaxIter(10)
+                .setRegParam(0.01);
+
+        PipelineModel model = new Pipeline()
+                .setStages(new PipelineStage[]{tokenizer, hashingTF, idf, lr})
+                .fit(data);
+
+        String path = Files.createTempDirectory("lreg-benchmark").resolve("model").toString();
+        model.write().overwrite().save(path);
+        return path;
+    }
+}
@@ -0,0 +1,47 @@
+package net.mls.modelserving.benchmark;
+
+import net.mls.modelserving.operation.ModelLoader;
+import net.mls.modelserving.operation.ModelSnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to turn a saved model directory into a servable {@link ModelSnapshot}, excluding the S3 fetch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ModelLoadBenchmark {
+
+    @Param({"native", "spark"})
+    public String engine;
+
+    private ModelLoader loader;
+    private String modelPath;
+
+    @Setup
+    public void setup() throws IOException {
+        loader = new ModelLoader(BenchmarkModels.spark(), "native".equals(engine), false);
+        modelPath = BenchmarkModels.modelPath();
+    }
+
+    @Benchmark
+    public ModelSnapshot load() throws IOException {
+        return loader.load("benchmark", modelPath);
+    }
+}
@@ -0,0 +1,53 @@
+package net.mls.modelserving.benchmark;
+
+import net.mls.modelserving.operation.ModelLoader;
+import net.mls.modelserving.operation.ModelSnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-review scoring through {@link ModelSnapshot#apply}, for both engines.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScoringBenchmark {
+    private static final int CORPUS_SIZE = 4096;
+
+    @Param({"native", "spark"})
+    public String engine;
+
+    private ModelSnapshot model;
+    private List<String> corpus;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        ModelLoader loader = new ModelLoader(BenchmarkModels.spark(), "native".equals(engine), false);
+        model = loader.load("benchmark", BenchmarkModels.modelPath());
+        // scored reviews are drawn from a different seed than the training corpus
+        corpus = SyntheticCorpus.reviews(CORPUS_SIZE, BenchmarkModels.SEED + 1);
+    }
+
+    @Benchmark
+    public String single() {
+        next = (next + 1) % CORPUS_SIZE;
+        return model.apply(corpus.get(next));
+    }
+}
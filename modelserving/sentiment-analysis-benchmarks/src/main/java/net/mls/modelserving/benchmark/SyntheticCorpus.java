@@ -0,0 +1,54 @@
+package net.mls.modelserving.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic app-review-like corpus so benchmark runs are comparable across machines.
+ */
+public final class SyntheticCorpus {
+    private static final String[] POSITIVE = {
+            "love", "great", "awesome", "fast", "easy", "helpful", "rewards", "nice", "smooth", "perfect"
+    };
+    private static final String[] NEGATIVE = {
+            "crashes", "slow", "terrible", "broken", "useless", "login", "error", "freezes", "annoying", "worst"
+    };
+    private static final String[] NEUTRAL = {
+            "the", "app", "card", "update", "account", "with", "this", "my", "is", "and", "after", "version"
+    };
+
+    private SyntheticCorpus() {
+    }
+
+    /**
+     * Returns {@code size} reviews; even indexes lean positive, odd indexes lean negative.
+     */
+    public static List<String> reviews(int size, long seed) {
+        Random random = new Random(seed);
+        List<String> reviews = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            reviews.add(review(random, i % 2 == 0));
+        }
+        return reviews;
+    }
+
+    public static double label(int index) {
+        return index % 2 == 0 ? 1.0 : 0.0;
+    }
+
+    private static String review(Random random, boolean positive) {
+        int words = 4 + random.nextInt(20);
+        StringBuilder sb = new StringBuilder();
+        for (int w = 0; w < words; w++) {
+            if (w > 0) {
+                sb.append(' ');
+            }
+            int roll = random.nextInt(10);
+            String[] pool = roll < 5 ? NEUTRAL : (roll < 9) == positive ? POSITIVE : NEGATIVE;
+            String word = pool[random.nextInt(pool.length)];
+            sb.append(w == 0 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word);
+        }
+        return sb.append('.').toString();
+    }
+}
@@ -0,0 +1,31 @@
+package net.mls.modelserving.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.dropwizard.DropwizardExports;
+import io.prometheus.client.exporter.MetricsServlet;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.ServletRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Prediction metrics live in the Dropwizard registry Spring Boot auto-configures, so they
+ * show up on the actuator /metrics endpoint; /prometheus exposes the same registry for scraping.
+ */
+@Configuration
+public class MetricsConfiguration {
+
+    @Bean
+    public PredictionMetrics predictionMetrics(MetricRegistry registry,
+                                               @Value("${metrics.stages.sampleRate:1.0}") double sampleRate) {
+        return new PredictionMetrics(registry, sampleRate);
+    }
+
+    @Bean
+    public ServletRegistrationBean prometheusServlet(MetricRegistry registry) {
+        CollectorRegistry collectorRegistry = new CollectorRegistry();
+        collectorRegistry.register(new DropwizardExports(registry));
+        return new ServletRegistrationBean(new MetricsServlet(collectorRegistry), "/prometheus");
+    }
+}
@@ -0,0 +1,142 @@
+package net.mls.modelserving.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-stage latency timers for the prediction path. A stage is timed only when
+ * {@link #start()} samples it; with a sample rate of 0 timing reduces to one field read.
+ */
+public class PredictionMetrics {
+    private static final PredictionMetrics DISABLED = new PredictionMetrics(null, 0.0);
+
+    public enum Stage {
+        REQUEST("prediction.request"),
+        DATAFRAME("prediction.stage.dataframe"),
+        TRANSFORM("prediction.stage.transform"),
+        COLLECT("prediction.stage.collect"),
+        NATIVE("prediction.stage.native");
+
+        private final String metricName;
+
+        Stage(String metricName) {
+            this.metricName = metricName;
+        }
+    }
+
+    private final double sampleRate;
+    private final Map<Stage, Timer> timers = new EnumMap<>(Stage.class);
+    private final Histogram requestSize;
+    private final Counter inFlight;
+    private final List<String> metricNames = new ArrayList<>();
+    private final long jvmStartTime = ManagementFactory.getRuntimeMXBean().getStartTime();
+    private volatile long modelLoadedMs = -1L;
+    private volatile long firstPredictionMs = -1L;
+
+    public PredictionMetrics(MetricRegistry registry, double sampleRate) {
+        this(registry, sampleRate, "");
+        if (registry == null) {
+            return;
+        }
+        registry.register("startup.model.loaded.ms", (Gauge<Long>) () -> modelLoadedMs);
+        registry.register("startup.first.prediction.ms", (Gauge<Long>) () -> firstPredictionMs);
+    }
+
+    /**
+     * Stage timers, request size and in-flight count for one model, named {@code prefix + "prediction..."}
+     * so several models can share a registry. Startup gauges are only registered without a prefix.
+     */
+    public PredictionMetrics(MetricRegistry registry, double sampleRate, String prefix) {
+        this.sampleRate = registry == null ? 0.0 : sampleRate;
+        if (registry == null) {
+            requestSize = null;
+            inFlight = null;
+            return;
+        }
+        for (Stage stage : Stage.values()) {
+            metricNames.add(prefix + stage.metricName);
+            timers.put(stage, registry.timer(prefix + stage.metricName));
+        }
+        metricNames.add(prefix + "prediction.request.size");
+        requestSize = registry.histogram(prefix + "prediction.request.size");
+        metricNames.add(prefix + "prediction.requests.inflight");
+        inFlight = registry.counter(prefix + "prediction.requests.inflight");
+    }
+
+    /**
+     * The names of the stage timers, request size and in-flight metrics, for removing exactly
+     * these from the registry once the model they belong to is unloaded.
+     */
+    public List<String> getMetricNames() {
+        return Collections.unmodifiableList(metricNames);
+    }
+
+    public static PredictionMetrics disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * @return a start timestamp to pass to {@link #stop}, or 0 if this call is not sampled
+     */
+    public long start() {
+        if (sampleRate <= 0.0 || (sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+            return 0L;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time since {@code start} and returns a fresh start for the next stage.
+     */
+    public long stop(Stage stage, long start) {
+        if (start == 0L) {
+            return 0L;
+        }
+        long now = System.nanoTime();
+        timers.get(stage).update(now - start, TimeUnit.NANOSECONDS);
+        return now;
+    }
+
+    public void requestStarted(int reviews) {
+        if (inFlight != null) {
+            inFlight.inc();
+            requestSize.update(reviews);
+        }
+    }
+
+    public void requestFinished() {
+        if (inFlight != null) {
+            inFlight.dec();
+        }
+    }
+
+    /**
+     * Records the time from JVM start until the first model became servable.
+     */
+    public void modelLoaded() {
+        if (modelLoadedMs < 0) {
+            modelLoadedMs = System.currentTimeMillis() - jvmStartTime;
+        }
+    }
+
+    /**
+     * Records the time from JVM start until the first prediction was answered successfully.
+     */
+    public void predictionSucceeded() {
+        if (firstPredictionMs < 0) {
+            firstPredictionMs = System.currentTimeMillis() - jvmStartTime;
+        }
+    }
+}
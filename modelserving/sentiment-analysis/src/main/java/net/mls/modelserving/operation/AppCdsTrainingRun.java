@@ -0,0 +1,42 @@
+package net.mls.modelserving.operation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+
+/**
+ * Training run for an AppCDS archive: once the model is loaded, scores a few reviews through
+ * the serving path so the classes they touch get loaded, then exits the JVM so the list
+ * {@code -XX:DumpLoadedClassList} recorded can be dumped into the archive. See
+ * {@code src/main/scripts/appcds.sh}.
+ */
+@Component
+@ConditionalOnProperty(name = "appcds.trainingRun", havingValue = "true")
+public class AppCdsTrainingRun implements ApplicationListener<ApplicationReadyEvent> {
+    private static final Logger LOG = LoggerFactory.getLogger(AppCdsTrainingRun.class);
+
+    @Autowired
+    private LogisticRegressionOperation op;
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        int exitCode = 0;
+        try {
+            ModelSnapshot model = op.whenLoaded().join();
+            model.apply("Love the rewards program! Free stuff is always good");
+            model.applyAll(Arrays.asList("Crashes constantly", "Love it"));
+            LOG.info("AppCDS training run finished on model version {}", model.getVersion());
+        } catch (Exception e) {
+            LOG.error("AppCDS training run failed", e);
+            exitCode = 1;
+        }
+        System.exit(SpringApplication.exit(event.getApplicationContext(), () -> 0) == 0 ? exitCode : 1);
+    }
+}
@@ -0,0 +1,80 @@
+package net.mls.modelserving.operation;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Memory-maps the single-file model artifact written by the learning pipeline's
+ * {@code CompactModelFile}. The weights are scored straight from the mapping, so JVMs on one
+ * host that map the same file share its pages. See the writer for the layout. Closing the model
+ * unmaps the file and deletes it.
+ */
+public final class CompactModelFile {
+    static final int MAGIC = 0x314D524C; // "LRM1" read little-endian
+    static final int VERSION = 1;
+    static final int FLAG_BINARY = 1;
+    static final int HEADER_SIZE = 32;
+
+    private CompactModelFile() {
+    }
+
+    public static NativeLogisticRegressionModel map(File file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // a buffer is indexed by int; no valid artifact is larger
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to be a compact model artifact");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.limit() < HEADER_SIZE + 8 || buffer.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a compact model artifact");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException(file + " has unsupported format version " + buffer.getInt(4));
+        }
+        int flags = buffer.getInt(8);
+        int numFeatures = buffer.getInt(12);
+        // in long, so a corrupt numFeatures cannot wrap around to a plausible length
+        long checksumOffset = HEADER_SIZE + 16L * numFeatures;
+        if (numFeatures <= 0 || buffer.limit() != checksumOffset + 8) {
+            throw new IOException(file + " is truncated or has a corrupt header");
+        }
+        if (buffer.getLong((int) checksumOffset) != crc32(buffer, (int) checksumOffset)) {
+            throw new IOException(file + " failed its checksum");
+        }
+
+        return new NativeLogisticRegressionModel(numFeatures, (flags & FLAG_BINARY) != 0,
+                doubles(buffer, HEADER_SIZE, numFeatures),
+                doubles(buffer, HEADER_SIZE + 8 * numFeatures, numFeatures),
+                buffer.getDouble(16), buffer.getDouble(24), buffer, file);
+    }
+
+    private static DoubleBuffer doubles(MappedByteBuffer buffer, int offset, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset).limit(offset + 8 * length);
+        return slice.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+    }
+
+    private static long crc32(MappedByteBuffer buffer, int length) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[8192];
+        ByteBuffer view = buffer.duplicate();
+        view.position(0).limit(length);
+        while (view.hasRemaining()) {
+            int n = Math.min(chunk.length, view.remaining());
+            view.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+        }
+        return crc.getValue();
+    }
+}
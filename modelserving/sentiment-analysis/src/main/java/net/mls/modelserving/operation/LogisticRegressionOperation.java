@@ -1,32 +1,49 @@
 package net.mls.modelserving.operation;
 
 
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import net.mls.modelserving.metrics.PredictionMetrics;
 import net.mls.modelserving.util.S3Client;
 import net.mls.modelserving.util.ZipFile;
-import org.apache.spark.ml.PipelineModel;
-import org.apache.spark.sql.Dataset;
-import org.apache.spark.sql.Row;
-import org.apache.spark.sql.RowFactory;
 import org.apache.spark.sql.SparkSession;
-import org.apache.spark.sql.types.DataTypes;
-import org.apache.spark.sql.types.Metadata;
-import org.apache.spark.sql.types.StructField;
-import org.apache.spark.sql.types.StructType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
 
 import javax.annotation.PostConstruct;
 import java.io.File;
 import java.io.IOException;
-import java.util.Collections;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 
 @Service("lreg")
 public class LogisticRegressionOperation implements Function<String, String> {
+    private static final Logger LOG = LoggerFactory.getLogger(LogisticRegressionOperation.class);
+    /** User metadata key under which the pipelines store the hex content MD5 of an artifact. */
+    private static final String MD5_METADATA = "content-md5";
 
-    private SparkSession spark = SparkSession.builder().appName("LogisticRegressionOperation").master("local").getOrCreate();
-    private PipelineModel model = null;
+    // created on first use: model loading needs it, native scoring does not
+    private volatile SparkSession spark = null;
+    private final CompletableFuture<ModelSnapshot> initialLoad = new CompletableFuture<>();
+
+    // read without locking on the request path; written only under the monitor below
+    private volatile ModelSnapshot current = null;
+    private volatile ModelSnapshot previous = null;
+    // version rolled back from; auto-refresh leaves it alone until S3 serves something else
+    private volatile String rolledBackVersion = null;
 
     @Value("${s3.accessKey}")
     private String accessKey;
@@ -38,32 +55,292 @@ public class LogisticRegressionOperation implements Function<String, String> {
     private String bucketName;
     @Value("${s3.outputFile}")
     private String outputFile;
+    @Value("${s3.compactFile:}")
+    private String compactFile;
+    @Value("${s3.download.partSizeMb:8}")
+    private int downloadPartSizeMb;
+    @Value("${s3.download.threads:4}")
+    private int downloadThreads;
+    @Value("${scoring.engine:native}")
+    private String engine;
+    @Value("${scoring.verifyParity:true}")
+    private boolean verifyParity;
+    @Value("${model.loadAsync:false}")
+    private boolean loadAsync;
+    @Value("${model.format:zip}")
+    private String format;
+    @Value("${model.compact.cacheDir:${java.io.tmpdir}}")
+    private String compactCacheDir;
+
+    @Autowired
+    private PredictionMetrics metrics;
+
+    private S3Client client;
+    private ModelLoader loader;
+    private ExecutorService downloadPool;
 
     @PostConstruct
     private void init() throws IOException {
-        S3Client client = new S3Client(accessKey, secretKey, endpoint);
-        File tmpZipFile = client.download(bucketName, outputFile);
-        String tmpUnzipPath = ZipFile.unpack(tmpZipFile);
-        model = PipelineModel.load(tmpUnzipPath);
-        tmpZipFile.delete();
+        client = new S3Client(accessKey, secretKey, endpoint);
+        AtomicInteger count = new AtomicInteger();
+        downloadPool = Executors.newFixedThreadPool(downloadThreads, r -> {
+            Thread thread = new Thread(r, "model-download-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        loader = new ModelLoader(this::spark, "native".equalsIgnoreCase(engine), verifyParity, metrics);
+
+        if (!loadAsync) {
+            initialLoad.complete(reload());
+            metrics.modelLoaded();
+            return;
+        }
+        // fetch and deserialize the model while the rest of the context and Tomcat start up
+        Thread thread = new Thread(() -> {
+            try {
+                initialLoad.complete(reload());
+                metrics.modelLoaded();
+            } catch (Throwable e) {
+                LOG.error("Initial model load failed", e);
+                initialLoad.completeExceptionally(e);
+            }
+        }, "model-initial-load");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private SparkSession spark() {
+        SparkSession session = spark;
+        if (session == null) {
+            synchronized (this) {
+                session = spark;
+                if (session == null) {
+                    session = SparkSession.builder().appName("LogisticRegressionOperation").master("local").getOrCreate();
+                    spark = session;
+                }
+            }
+        }
+        return session;
     }
+
     public String apply(String review) {
-        List<Row> data = Collections.singletonList(RowFactory.create(review, false, "0", 0.0));
+        return current().apply(review);
+    }
 
-        StructType schema = new StructType(new StructField[] {
-                new StructField("review", DataTypes.StringType, false, Metadata.empty()),
-                new StructField("afterRelease", DataTypes.BooleanType, false, Metadata.empty()),
-                new StructField("version", DataTypes.StringType, false, Metadata.empty()),
-                new StructField("label", DataTypes.DoubleType, false, Metadata.empty())
-        });
+    public List<String> applyAll(List<String> reviews) {
+        return current().applyAll(reviews);
+    }
+
+    /**
+     * Returns the model currently serving requests. Callers that need the version and the
+     * prediction to agree should resolve the snapshot once and use it for both.
+     *
+     * @throws ModelNotReadyException while the initial load is still running
+     */
+    public ModelSnapshot current() {
+        ModelSnapshot snapshot = current;
+        if (snapshot == null) {
+            throw new ModelNotReadyException();
+        }
+        return snapshot;
+    }
+
+    public boolean isLoaded() {
+        return current != null;
+    }
+
+    /**
+     * Completes once the first model has been loaded, whether synchronously or in the background.
+     */
+    public CompletableFuture<ModelSnapshot> whenLoaded() {
+        return initialLoad;
+    }
+
+    public ModelSnapshot previous() {
+        return previous;
+    }
+
+    /**
+     * The version auto-refresh is holding back after a rollback, or null.
+     */
+    public String getRolledBackVersion() {
+        return rolledBackVersion;
+    }
 
-        Dataset<Row> testData = spark.createDataFrame(data, schema);
-        Dataset<Row> prediction = model.transform(testData);
+    public String getModelVersion() {
+        return current().getVersion();
+    }
 
-        Row testDataVec = ((Row[]) prediction.collect())[0];
-        double predictionResult = (double) testDataVec.get(testDataVec.size()-1);
-        return "Sentiment is " + (predictionResult == 1.0 ? "positive" : "negative");
+    /**
+     * Loads the artifact if its ETag differs from the serving version. A version that was rolled
+     * back is not loaded again while S3 still serves it; publishing a new artifact or an explicit
+     * {@link #reload()} ends the rollback.
+     *
+     * @return true if a new model was swapped in
+     */
+    public synchronized boolean refreshIfChanged() throws IOException {
+        ObjectMetadata metadata = client.getMetadata(bucketName, artifactKey());
+        String eTag = metadata.getETag();
+        if (current != null && eTag.equals(current.getVersion())) {
+            return false;
+        }
+        if (eTag.equals(rolledBackVersion)) {
+            LOG.debug("Not refreshing to rolled back model version {}", eTag);
+            return false;
+        }
+        swap(load(artifactKey(), metadata));
+        rolledBackVersion = null;
+        return true;
+    }
 
+    /**
+     * Unconditionally loads the latest artifact and swaps it in.
+     */
+    public synchronized ModelSnapshot reload() throws IOException {
+        String key = artifactKey();
+        swap(load(key, client.getMetadata(bucketName, key)));
+        rolledBackVersion = null;
+        return current;
+    }
+
+    /**
+     * Swaps the previous model back in; the model being replaced becomes the new rollback target
+     * and is kept out of service by {@link #refreshIfChanged()} until a different artifact is
+     * published.
+     */
+    public synchronized ModelSnapshot rollback() {
+        if (previous == null) {
+            throw new IllegalStateException("No previous model to roll back to");
+        }
+        rolledBackVersion = current.getVersion();
+        swap(previous);
+        return current;
+    }
+
+    private void swap(ModelSnapshot next) {
+        previous = current;
+        current = next;
+        LOG.info("Serving model version {}", next.getVersion());
+    }
+
+    private boolean isCompact() {
+        return "compact".equalsIgnoreCase(format);
+    }
+
+    private String artifactKey() {
+        return isCompact() ? compactFile : outputFile;
+    }
+
+    /**
+     * File extension of artifacts in the configured {@code model.format}.
+     */
+    String artifactExtension() {
+        return isCompact() ? ".lrm" : ".zip";
+    }
+
+    /**
+     * Loads the artifact at {@code key} in the configured bucket without touching the serving model.
+     */
+    ModelSnapshot loadArtifact(String key) throws IOException {
+        return load(key, client.getMetadata(bucketName, key));
+    }
+
+    /**
+     * The version the artifact at {@code key} would load as, without loading it.
+     */
+    String artifactVersion(String key) {
+        return client.getMetadata(bucketName, key).getETag();
+    }
+
+    private ModelSnapshot load(String key, ObjectMetadata metadata) throws IOException {
+        return isCompact() ? loadCompact(key, metadata) : loadZip(key, metadata);
+    }
+
+    /**
+     * Fetches the compact artifact into a cache directory shared by every JVM on the host, named
+     * by version, and maps it from there; a version another JVM already fetched is mapped as is.
+     */
+    private ModelSnapshot loadCompact(String key, ObjectMetadata metadata) throws IOException {
+        String eTag = metadata.getETag();
+        File target = new File(compactCacheDir, "lreg-" + eTag.replaceAll("[^A-Za-z0-9]", "") + ".lrm");
+        if (!target.exists()) {
+            target.getParentFile().mkdirs();
+            File partial = File.createTempFile(target.getName(), ".part", target.getParentFile());
+            try (InputStream in = client.openParallel(bucketName, key, metadata,
+                    downloadPartSizeMb * 1024L * 1024L, downloadThreads, downloadPool)) {
+                Files.copy(in, partial.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                Files.move(partial.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                partial.delete();
+            }
+        }
+        try {
+            return loader.loadCompact(eTag, target);
+        } catch (IOException e) {
+            // a corrupt cached copy must not stick around for the next attempt
+            target.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Streams the artifact through parallel ranged GETs straight into the unzipper, computing
+     * the MD5 on the way through instead of re-reading a downloaded copy.
+     */
+    private ModelSnapshot loadZip(String key, ObjectMetadata metadata) throws IOException {
+        String eTag = metadata.getETag();
+        // keyed by artifact as well as version: registry models may load concurrently
+        File modelDir = new File(System.getProperty("java.io.tmpdir"),
+                "lreg-" + eTag.replaceAll("[^A-Za-z0-9]", "") + "-" + Integer.toHexString(key.hashCode()));
+        FileSystemUtils.deleteRecursively(modelDir);
+        MessageDigest md5 = newMd5();
+        try (InputStream in = new DigestInputStream(client.openParallel(bucketName, key, metadata,
+                downloadPartSizeMb * 1024L * 1024L, downloadThreads, downloadPool), md5)) {
+            ZipFile.unpack(in, modelDir, downloadPool);
+            // the unzipper stops at the central directory; the digest needs every byte
+            byte[] rest = new byte[8192];
+            while (in.read(rest) != -1) {
+                // drain
+            }
+        }
+        verifyChecksum(key, metadata, md5.digest());
+
+        ModelSnapshot snapshot = loader.load(eTag, modelDir.getAbsolutePath());
+        FileSystemUtils.deleteRecursively(modelDir);
+        return snapshot;
+    }
+
+    /**
+     * Checks the digest against the MD5 the pipelines store in user metadata on upload, or
+     * against the ETag of a single-part upload, which is the content MD5. A multipart artifact
+     * uploaded without that metadata has nothing to check against.
+     */
+    private void verifyChecksum(String key, ObjectMetadata metadata, byte[] digest) throws IOException {
+        String expected = metadata.getUserMetadata().get(MD5_METADATA);
+        if (expected == null) {
+            expected = metadata.getETag().replace("\"", "");
+            if (expected.contains("-")) {
+                // multipart uploads carry an ETag that is not the content MD5
+                LOG.warn("Skipping checksum for multipart artifact s3://{}/{} without {} metadata",
+                        bucketName, key, MD5_METADATA);
+                return;
+            }
+        }
+        StringBuilder actual = new StringBuilder();
+        for (byte b : digest) {
+            actual.append(String.format("%02x", b));
+        }
+        if (!expected.equalsIgnoreCase(actual.toString())) {
+            throw new IOException("Checksum mismatch for s3://" + bucketName + "/" + key
+                    + ": expected " + expected + " but was " + actual);
+        }
+    }
 
+    private static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
     }
 }
@@ -0,0 +1,95 @@
+package net.mls.modelserving.operation;
+
+import net.mls.modelserving.metrics.PredictionMetrics;
+import org.apache.spark.ml.PipelineModel;
+import org.apache.spark.sql.SparkSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Turns a saved {@link PipelineModel} directory on local disk into a {@link ModelSnapshot},
+ * extracting the native engine and checking it against Spark on the parity corpus.
+ */
+public final class ModelLoader {
+    private static final Logger LOG = LoggerFactory.getLogger(ModelLoader.class);
+    private static final String PARITY_CORPUS = "parity-corpus.txt";
+
+    private final Supplier<SparkSession> spark;
+    private final boolean nativeEngine;
+    private final boolean verifyParity;
+    private final PredictionMetrics metrics;
+
+    public ModelLoader(SparkSession spark, boolean nativeEngine, boolean verifyParity) {
+        this(() -> spark, nativeEngine, verifyParity, PredictionMetrics.disabled());
+    }
+
+    public ModelLoader(Supplier<SparkSession> spark, boolean nativeEngine, boolean verifyParity, PredictionMetrics metrics) {
+        this.spark = spark;
+        this.nativeEngine = nativeEngine;
+        this.verifyParity = verifyParity;
+        this.metrics = metrics;
+    }
+
+    public ModelSnapshot load(String version, String modelPath) throws IOException {
+        // PipelineModel.load reuses the active session, so make sure ours exists first
+        spark.get();
+        PipelineModel model = PipelineModel.load(modelPath);
+
+        NativeLogisticRegressionModel nativeModel = null;
+        if (nativeEngine) {
+            nativeModel = loadNativeModel(model);
+        }
+        return new ModelSnapshot(version, spark, model, nativeModel, metrics);
+    }
+
+    /**
+     * Maps a compact artifact; the snapshot scores natively and never needs Spark.
+     */
+    public ModelSnapshot loadCompact(String version, File artifact) throws IOException {
+        return new ModelSnapshot(version, spark, null, CompactModelFile.map(artifact), metrics);
+    }
+
+    private NativeLogisticRegressionModel loadNativeModel(PipelineModel model) throws IOException {
+        NativeLogisticRegressionModel candidate;
+        try {
+            candidate = NativeLogisticRegressionModel.from(model);
+        } catch (UnsupportedOperationException e) {
+            LOG.warn("Native scoring unavailable, falling back to Spark: {}", e.getMessage());
+            return null;
+        }
+        if (verifyParity) {
+            ModelSnapshot sparkOnly = new ModelSnapshot(null, spark, model, null, PredictionMetrics.disabled());
+            for (String review : readParityCorpus()) {
+                double expected = sparkOnly.sparkPredict(review);
+                double actual = candidate.predict(review);
+                if (Double.doubleToLongBits(expected) != Double.doubleToLongBits(actual)) {
+                    LOG.error("Native scoring diverges from Spark on \"{}\" ({} vs {}), falling back to Spark",
+                            review, actual, expected);
+                    return null;
+                }
+            }
+        }
+        return candidate;
+    }
+
+    private List<String> readParityCorpus() throws IOException {
+        InputStream is = ModelLoader.class.getClassLoader().getResourceAsStream(PARITY_CORPUS);
+        if (is == null) {
+            return Collections.emptyList();
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package net.mls.modelserving.operation;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.NOT_FOUND)
+public class ModelNotFoundException extends RuntimeException {
+    public ModelNotFoundException(String name, String version) {
+        super("No model " + name + " with version " + version);
+    }
+}
@@ -0,0 +1,11 @@
+package net.mls.modelserving.operation;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class ModelNotReadyException extends RuntimeException {
+    public ModelNotReadyException() {
+        super("Model is still loading");
+    }
+}
@@ -0,0 +1,31 @@
+package net.mls.modelserving.operation;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports OUT_OF_SERVICE, which /health maps to 503, until the first model is loaded and
+ * {@link ModelWarmup} has finished. Point the pod's readiness probe at /health.
+ */
+@Component
+public class ModelReadinessIndicator extends AbstractHealthIndicator {
+
+    @Autowired
+    private LogisticRegressionOperation op;
+    @Autowired
+    private ModelWarmup warmup;
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) {
+        boolean loaded = op.isLoaded();
+        boolean warmedUp = warmup.isFinished();
+        if (loaded && warmedUp) {
+            builder.up().withDetail("version", op.current().getVersion());
+        } else {
+            builder.outOfService();
+        }
+        builder.withDetail("modelLoaded", loaded).withDetail("warmedUp", warmedUp);
+    }
+}
@@ -0,0 +1,30 @@
+package net.mls.modelserving.operation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Polls the model artifact's ETag and swaps in a new model when it changes. Loading happens on
+ * the scheduler thread, so requests keep scoring against the old model until the swap.
+ */
+@Component
+@ConditionalOnProperty(name = "model.refresh.enabled", havingValue = "true", matchIfMissing = true)
+public class ModelRefresher {
+    private static final Logger LOG = LoggerFactory.getLogger(ModelRefresher.class);
+
+    @Autowired
+    private LogisticRegressionOperation op;
+
+    @Scheduled(initialDelayString = "${model.refresh.intervalMs:60000}", fixedDelayString = "${model.refresh.intervalMs:60000}")
+    public void refresh() {
+        try {
+            op.refreshIfChanged();
+        } catch (Exception e) {
+            LOG.warn("Model refresh failed, keeping the current model", e);
+        }
+    }
+}
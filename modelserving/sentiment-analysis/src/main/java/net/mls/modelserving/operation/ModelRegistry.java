@@ -0,0 +1,306 @@
+package net.mls.modelserving.operation;
+
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import net.mls.modelserving.metrics.PredictionMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Serves any number of models by name and version alongside the default {@code lreg} model.
+ * A model is loaded from {@code s3.bucketName} at {@code registry.prefix + name + "/" + version}
+ * plus the extension of the configured {@code model.format} the first time it is asked for, and
+ * the least recently used models are evicted once the estimated heap or off-heap footprint
+ * exceeds its budget. An evicted compact model is unmapped and its cached file deleted once the
+ * requests scoring with it are done, so the off-heap budget is real. Each loaded model records
+ * its own metrics under {@code models.<id>.}, where the id {@code <name>/<version>} is encoded
+ * with letters and digits kept and every other character, underscore included, written as
+ * {@code _} and two hex digits. Prometheus turns every other character into an underscore, so
+ * without the encoding {@code a-b/1} and {@code a_b/1} would export one series; with it no two
+ * models share a name, and an evicted model removes exactly the metrics it registered.
+ * <p>
+ * The {@code latest} version of a model is a moving target: once it has been resident for
+ * {@code registry.latestCheckMs} the next request compares the artifact's ETag with the loaded
+ * version, and a newer artifact replaces it.
+ */
+@Component
+public class ModelRegistry {
+    private static final Logger LOG = LoggerFactory.getLogger(ModelRegistry.class);
+    private static final Pattern VALID_ID = Pattern.compile("[A-Za-z0-9._-]+");
+    public static final String LATEST = "latest";
+
+    @Value("${registry.prefix:models/}")
+    private String prefix;
+    @Value("${registry.heapBudgetMb:1024}")
+    private long heapBudgetMb;
+    @Value("${registry.offHeapBudgetMb:4096}")
+    private long offHeapBudgetMb;
+    @Value("${registry.latestCheckMs:30000}")
+    private long latestCheckMs;
+    @Value("${metrics.stages.sampleRate:1.0}")
+    private double sampleRate;
+
+    @Autowired
+    private LogisticRegressionOperation op;
+    @Autowired
+    private MetricRegistry registry;
+
+    // access-ordered, so iteration starts at the least recently used model; guarded by itself
+    private final LinkedHashMap<String, Entry> models = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentMap<String, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+    private final AtomicLong evictions = new AtomicLong();
+    private long heapBytes = 0L;
+    private long offHeapBytes = 0L;
+
+    @PostConstruct
+    private void init() {
+        registry.register("models.loaded", (Gauge<Integer>) () -> {
+            synchronized (models) {
+                return models.size();
+            }
+        });
+        registry.register("models.heap.bytes", (Gauge<Long>) () -> {
+            synchronized (models) {
+                return heapBytes;
+            }
+        });
+        registry.register("models.offheap.bytes", (Gauge<Long>) () -> {
+            synchronized (models) {
+                return offHeapBytes;
+            }
+        });
+        registry.register("models.evictions", (Gauge<Long>) evictions::get);
+    }
+
+    /**
+     * Returns the requested model, loading it on first use. Concurrent requests for a model that
+     * is still loading wait for that one load.
+     *
+     * @throws ModelNotFoundException if there is no artifact for {@code name} and {@code version}
+     */
+    public ModelSnapshot get(String name, String version) {
+        if (!VALID_ID.matcher(name).matches() || !VALID_ID.matcher(version).matches()) {
+            throw new ModelNotFoundException(name, version);
+        }
+        String id = name + "/" + version;
+        Entry cached = lookup(id);
+        if (cached != null && !isOutdated(id, cached)) {
+            return cached.snapshot;
+        }
+
+        CompletableFuture<Entry> pending = new CompletableFuture<>();
+        CompletableFuture<Entry> existing = loading.putIfAbsent(id, pending);
+        if (existing != null) {
+            return await(existing).snapshot;
+        }
+        try {
+            // another thread may have finished loading between the lookup and claiming the slot
+            cached = lookup(id);
+            if (cached != null) {
+                pending.complete(cached);
+                return cached.snapshot;
+            }
+            Entry entry = load(name, version, id);
+            admit(id, entry);
+            pending.complete(entry);
+            return entry.snapshot;
+        } catch (RuntimeException e) {
+            pending.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(id, pending);
+        }
+    }
+
+    /**
+     * Like {@link #get}, but retains the snapshot for scoring; the caller must
+     * {@link ModelSnapshot#release release} it. A snapshot evicted and freed between the lookup
+     * and the retain is looked up, and if need be loaded, again.
+     */
+    public ModelSnapshot acquire(String name, String version) {
+        while (true) {
+            ModelSnapshot snapshot = get(name, version);
+            if (snapshot.retain()) {
+                return snapshot;
+            }
+        }
+    }
+
+    /**
+     * Describes the resident models, least recently used first.
+     */
+    public List<Map<String, Object>> describe() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        synchronized (models) {
+            for (Map.Entry<String, Entry> e : models.entrySet()) {
+                Map<String, Object> model = new LinkedHashMap<>();
+                model.put("id", e.getKey());
+                model.put("version", e.getValue().snapshot.getVersion());
+                model.put("loadedAt", e.getValue().snapshot.getLoadedAt());
+                model.put("native", e.getValue().snapshot.isNative());
+                model.put("heapBytes", e.getValue().heapBytes);
+                model.put("offHeapBytes", e.getValue().offHeapBytes);
+                result.add(model);
+            }
+        }
+        return result;
+    }
+
+    private Entry lookup(String id) {
+        synchronized (models) {
+            return models.get(id);
+        }
+    }
+
+    /**
+     * Whether a resident {@code latest} model has been superseded in S3, checked at most once per
+     * {@code latestCheckMs}. An outdated entry is dropped so the caller loads the new artifact.
+     */
+    private boolean isOutdated(String id, Entry entry) {
+        if (!id.endsWith("/" + LATEST)) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (now - entry.checkedAt < latestCheckMs) {
+            return false;
+        }
+        entry.checkedAt = now;
+        String version;
+        try {
+            version = op.artifactVersion(artifactKey(id));
+        } catch (RuntimeException e) {
+            LOG.warn("Could not check model {} for a newer artifact, keeping version {}",
+                    id, entry.snapshot.getVersion(), e);
+            return false;
+        }
+        if (version.equals(entry.snapshot.getVersion())) {
+            return false;
+        }
+        synchronized (models) {
+            if (models.get(id) != entry) {
+                // another request already replaced or evicted it
+                return true;
+            }
+            models.remove(id);
+            heapBytes -= entry.heapBytes;
+            offHeapBytes -= entry.offHeapBytes;
+        }
+        removeMetrics(entry);
+        entry.snapshot.close();
+        LOG.info("Model {} moved on from version {} to {}", id, entry.snapshot.getVersion(), version);
+        return true;
+    }
+
+    private String artifactKey(String id) {
+        return prefix + id + op.artifactExtension();
+    }
+
+    private void removeMetrics(Entry entry) {
+        entry.snapshot.getMetrics().getMetricNames().forEach(registry::remove);
+    }
+
+    private Entry load(String name, String version, String id) {
+        String key = artifactKey(id);
+        ModelSnapshot snapshot;
+        try {
+            snapshot = op.loadArtifact(key);
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == 404) {
+                throw new ModelNotFoundException(name, version);
+            }
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load model " + id, e);
+        }
+        PredictionMetrics metrics = new PredictionMetrics(registry, sampleRate, "models." + metricId(id) + ".");
+        Entry entry = new Entry(snapshot.withMetrics(metrics),
+                snapshot.estimateHeapBytes(), snapshot.estimateOffHeapBytes());
+        LOG.info("Loaded model {} version {} ({} heap bytes, {} off-heap bytes)",
+                id, snapshot.getVersion(), entry.heapBytes, entry.offHeapBytes);
+        return entry;
+    }
+
+    private void admit(String id, Entry entry) {
+        long heapBudget = heapBudgetMb * 1024L * 1024L;
+        long offHeapBudget = offHeapBudgetMb * 1024L * 1024L;
+        List<Map.Entry<String, Entry>> evicted = new ArrayList<>();
+        synchronized (models) {
+            models.put(id, entry);
+            heapBytes += entry.heapBytes;
+            offHeapBytes += entry.offHeapBytes;
+            Iterator<Map.Entry<String, Entry>> lru = models.entrySet().iterator();
+            // the model just admitted stays even if it alone exceeds the budget
+            while ((heapBytes > heapBudget || offHeapBytes > offHeapBudget) && models.size() > 1) {
+                Map.Entry<String, Entry> eldest = lru.next();
+                lru.remove();
+                heapBytes -= eldest.getValue().heapBytes;
+                offHeapBytes -= eldest.getValue().offHeapBytes;
+                evicted.add(eldest);
+            }
+        }
+        for (Map.Entry<String, Entry> e : evicted) {
+            evictions.incrementAndGet();
+            removeMetrics(e.getValue());
+            e.getValue().snapshot.close();
+            LOG.info("Evicted model {} to stay within the memory budget", e.getKey());
+        }
+    }
+
+    private static String metricId(String id) {
+        StringBuilder sb = new StringBuilder(id.length() + 8);
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+                sb.append(c);
+            } else {
+                // ids are ASCII, checked against VALID_ID
+                sb.append('_').append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xf, 16));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static Entry await(CompletableFuture<Entry> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static final class Entry {
+        private final ModelSnapshot snapshot;
+        private final long heapBytes;
+        private final long offHeapBytes;
+        // when a latest model last compared its version with S3
+        private volatile long checkedAt = System.currentTimeMillis();
+
+        Entry(ModelSnapshot snapshot, long heapBytes, long offHeapBytes) {
+            this.snapshot = snapshot;
+            this.heapBytes = heapBytes;
+            this.offHeapBytes = offHeapBytes;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package net.mls.modelserving.operation;
+
+import net.mls.modelserving.metrics.PredictionMetrics;
+import net.mls.modelserving.metrics.PredictionMetrics.Stage;
+import org.apache.spark.ml.PipelineModel;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.Metadata;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.util.SizeEstimator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * An immutable, fully loaded model together with the version it was loaded from.
+ * Requests resolve a snapshot once and score against it, so a concurrent swap never
+ * mixes two models within one request.
+ * <p>
+ * A snapshot that can be evicted is {@link #close closed} by its owner once it is no longer
+ * served; scorers that may outlive that {@link #retain} it first and {@link #release} it after,
+ * and its resources are freed when the last of them is done.
+ */
+public final class ModelSnapshot implements Function<String, String> {
+    private static final StructType SCHEMA = new StructType(new StructField[] {
+            new StructField("review", DataTypes.StringType, false, Metadata.empty()),
+            new StructField("afterRelease", DataTypes.BooleanType, false, Metadata.empty()),
+            new StructField("version", DataTypes.StringType, false, Metadata.empty()),
+            new StructField("label", DataTypes.DoubleType, false, Metadata.empty())
+    });
+
+    private final String version;
+    private final long loadedAt;
+    private final Supplier<SparkSession> spark;
+    private final PipelineModel model;
+    private final NativeLogisticRegressionModel nativeModel;
+    private final PredictionMetrics metrics;
+    // one reference for the owner plus one per scorer; resources go when it drops to zero
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    ModelSnapshot(String version, Supplier<SparkSession> spark, PipelineModel model, NativeLogisticRegressionModel nativeModel,
+                  PredictionMetrics metrics) {
+        this.version = version;
+        this.loadedAt = System.currentTimeMillis();
+        this.spark = spark;
+        this.model = model;
+        this.nativeModel = nativeModel;
+        this.metrics = metrics;
+    }
+
+    public String apply(String review) {
+        if (nativeModel == null) {
+            return describe(sparkPredict(review));
+        }
+        long start = metrics.start();
+        double predictionResult = nativeModel.predict(review);
+        metrics.stop(Stage.NATIVE, start);
+        return describe(predictionResult);
+    }
+
+    /**
+     * Scores all reviews in one pass, either through the native engine or a single
+     * Spark transform over one DataFrame. Results are returned in input order.
+     */
+    public List<String> applyAll(List<String> reviews) {
+        List<String> results = new ArrayList<>(reviews.size());
+        if (nativeModel != null) {
+            long start = metrics.start();
+            for (String review : reviews) {
+                results.add(describe(nativeModel.predict(review)));
+            }
+            metrics.stop(Stage.NATIVE, start);
+        } else {
+            for (double predictionResult : sparkPredictAll(reviews)) {
+                results.add(describe(predictionResult));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Probability of a positive review, or {@code null} when the model has no native scorer;
+     * the Spark path only yields the thresholded label.
+     */
+    public Double probability(String review) {
+        return nativeModel == null ? null : nativeModel.probability(review);
+    }
+
+    /**
+     * Identifies the loaded model; the S3 ETag of the artifact it was loaded from.
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    public long getLoadedAt() {
+        return loadedAt;
+    }
+
+    public boolean isNative() {
+        return nativeModel != null;
+    }
+
+    public PredictionMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Takes a reference for scoring, or returns {@code false} if the snapshot was already freed.
+     */
+    public boolean retain() {
+        while (true) {
+            int count = references.get();
+            if (count == 0) {
+                return false;
+            }
+            if (references.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        if (references.decrementAndGet() == 0 && nativeModel != null) {
+            nativeModel.close();
+        }
+    }
+
+    /**
+     * Drops the owner's reference; the model is freed once no scorer holds one.
+     */
+    void close() {
+        if (closed.compareAndSet(false, true)) {
+            release();
+        }
+    }
+
+    PipelineModel getModel() {
+        return model;
+    }
+
+    /**
+     * Returns a view of the same model that records stage timings to {@code metrics}.
+     */
+    ModelSnapshot withMetrics(PredictionMetrics metrics) {
+        return new ModelSnapshot(version, spark, model, nativeModel, metrics);
+    }
+
+    /**
+     * Estimated heap footprint: the Spark pipeline graph plus native weights copied out of it.
+     */
+    long estimateHeapBytes() {
+        long bytes = model == null ? 0L : SizeEstimator.estimate(model);
+        if (nativeModel != null && !nativeModel.isMapped()) {
+            bytes += nativeModel.sizeBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Bytes of memory-mapped weights, which live in the page cache rather than on the heap.
+     */
+    long estimateOffHeapBytes() {
+        return nativeModel != null && nativeModel.isMapped() ? nativeModel.sizeBytes() : 0L;
+    }
+
+    static String describe(double predictionResult) {
+        return "Sentiment is " + (predictionResult == 1.0 ? "positive" : "negative");
+    }
+
+    /**
+     * Inverse of the description returned by {@link #apply}: 1.0 for positive, 0.0 for negative.
+     */
+    public static double labelOf(String description) {
+        return description.endsWith("positive") ? 1.0 : 0.0;
+    }
+
+    double sparkPredict(String review) {
+        return sparkPredictAll(Collections.singletonList(review))[0];
+    }
+
+    private double[] sparkPredictAll(List<String> reviews) {
+        long start = metrics.start();
+        List<Row> data = new ArrayList<>(reviews.size());
+        for (String review : reviews) {
+            data.add(RowFactory.create(review, false, "0", 0.0));
+        }
+
+        Dataset<Row> testData = spark.get().createDataFrame(data, SCHEMA);
+        start = metrics.stop(Stage.DATAFRAME, start);
+        Dataset<Row> prediction = model.transform(testData);
+        start = metrics.stop(Stage.TRANSFORM, start);
+
+        // local relations keep row order through transform and collect
+        Row[] rows = (Row[]) prediction.collect();
+        metrics.stop(Stage.COLLECT, start);
+        double[] results = new double[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            results[i] = (double) rows[i].get(rows[i].size()-1);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,159 @@
+package net.mls.modelserving.operation;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import net.mls.modelserving.metrics.PredictionMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Replays a corpus of reviews through the scoring path once the first model is loaded, pass after
+ * pass, until the time per pass stops changing by more than {@code warmup.tolerance} for
+ * {@code warmup.stablePasses} passes in a row. {@link ModelReadinessIndicator} keeps the pod out
+ * of service until this has finished, so live traffic never lands on cold JIT code or an
+ * uninitialized Spark session.
+ */
+@Component
+public class ModelWarmup implements ApplicationListener<ApplicationReadyEvent> {
+    private static final Logger LOG = LoggerFactory.getLogger(ModelWarmup.class);
+    private static final String BUILT_IN_CORPUS = "parity-corpus.txt";
+
+    @Value("${warmup.enabled:true}")
+    private boolean enabled;
+    @Value("${warmup.corpus:}")
+    private String corpusPath;
+    @Value("${warmup.syntheticReviews:200}")
+    private int syntheticReviews;
+    @Value("${warmup.minIterations:5}")
+    private int minIterations;
+    @Value("${warmup.maxIterations:200}")
+    private int maxIterations;
+    @Value("${warmup.stablePasses:3}")
+    private int stablePasses;
+    @Value("${warmup.tolerance:0.1}")
+    private double tolerance;
+    @Value("${warmup.maxDurationMs:60000}")
+    private long maxDurationMs;
+
+    @Autowired
+    private LogisticRegressionOperation op;
+    @Autowired
+    private MetricRegistry registry;
+
+    private volatile boolean finished = false;
+    private volatile long durationMs = -1L;
+    private volatile int iterations = 0;
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        registry.register("warmup.duration.ms", (Gauge<Long>) () -> durationMs);
+        registry.register("warmup.iterations", (Gauge<Integer>) () -> iterations);
+        if (!enabled) {
+            finished = true;
+            return;
+        }
+        Thread thread = new Thread(this::run, "model-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    private void run() {
+        try {
+            op.whenLoaded().join();
+            List<String> corpus = loadCorpus();
+            long start = System.nanoTime();
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxDurationMs);
+            long previousPass = -1L;
+            int stable = 0;
+            while (iterations < maxIterations && System.nanoTime() < deadline) {
+                // warm-up latencies would skew the stage timers, so score without recording them
+                ModelSnapshot model = op.current().withMetrics(PredictionMetrics.disabled());
+                long passStart = System.nanoTime();
+                for (String review : corpus) {
+                    model.apply(review);
+                }
+                model.applyAll(corpus);
+                long pass = System.nanoTime() - passStart;
+                iterations++;
+
+                stable = previousPass > 0 && Math.abs(pass - previousPass) <= tolerance * previousPass ? stable + 1 : 0;
+                previousPass = pass;
+                if (iterations >= minIterations && stable >= stablePasses) {
+                    break;
+                }
+            }
+            durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            LOG.info("Warm-up finished after {} passes over {} reviews in {} ms (last pass {} us)",
+                    iterations, corpus.size(), durationMs, TimeUnit.NANOSECONDS.toMicros(previousPass));
+        } catch (Exception e) {
+            // a failed warm-up only costs latency; it must not keep the pod out of service forever
+            LOG.warn("Warm-up failed, serving cold", e);
+        } finally {
+            finished = true;
+        }
+    }
+
+    private List<String> loadCorpus() throws IOException {
+        if (!corpusPath.isEmpty()) {
+            return Files.readAllLines(Paths.get(corpusPath), StandardCharsets.UTF_8).stream()
+                    .filter(line -> !line.trim().isEmpty())
+                    .collect(Collectors.toList());
+        }
+        return syntheticCorpus();
+    }
+
+    /**
+     * Recombines the words of the bundled parity corpus into reviews of varying length, so
+     * the warm-up exercises short and long token loops alike. Seeded, so every pod sees the same corpus.
+     */
+    private List<String> syntheticCorpus() throws IOException {
+        List<String> words = new ArrayList<>();
+        InputStream is = ModelWarmup.class.getClassLoader().getResourceAsStream(BUILT_IN_CORPUS);
+        if (is != null) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+                reader.lines().forEach(line -> words.addAll(Arrays.asList(line.split("\\s+"))));
+            }
+        }
+        if (words.isEmpty()) {
+            return Collections.singletonList("Love it");
+        }
+        Random random = new Random(42);
+        List<String> reviews = new ArrayList<>(syntheticReviews);
+        for (int i = 0; i < syntheticReviews; i++) {
+            int length = 1 + random.nextInt(40);
+            StringBuilder review = new StringBuilder();
+            for (int j = 0; j < length; j++) {
+                if (j > 0) {
+                    review.append(' ');
+                }
+                review.append(words.get(random.nextInt(words.size())));
+            }
+            reviews.add(review.toString());
+        }
+        return reviews;
+    }
+}
@@ -0,0 +1,141 @@
+package net.mls.modelserving.operation;
+
+import net.mls.pipeline.common.feature.HashingFeaturizer;
+import net.mls.pipeline.common.feature.SparseTermVector;
+import org.apache.spark.ml.PipelineModel;
+import org.apache.spark.ml.Transformer;
+import org.apache.spark.ml.classification.LogisticRegressionModel;
+import org.apache.spark.ml.feature.HashingTF;
+import org.apache.spark.ml.feature.IDFModel;
+import org.apache.spark.ml.feature.Tokenizer;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Pure-Java scorer for the Tokenizer -> HashingTF -> IDF -> LogisticRegression pipeline.
+ * The fitted parameters come from a loaded {@link PipelineModel} or a mapped {@link CompactModelFile},
+ * and every arithmetic step mirrors the Spark 2.1 implementation so predictions match the Spark path.
+ */
+public final class NativeLogisticRegressionModel {
+    private static final ThreadLocal<SparseTermVector> TERMS = ThreadLocal.withInitial(SparseTermVector::new);
+
+    private final HashingFeaturizer featurizer;
+    // heap-wrapped arrays when extracted from Spark, read-only mapped views for compact artifacts
+    private final DoubleBuffer idf;
+    private final DoubleBuffer coefficients;
+    private final double intercept;
+    private final double threshold;
+    // the mapping the weights are views of, and the file it maps; null when extracted from Spark
+    private final MappedByteBuffer mapping;
+    private final File source;
+
+    NativeLogisticRegressionModel(int numFeatures, boolean binary, DoubleBuffer idf,
+                                  DoubleBuffer coefficients, double intercept, double threshold) {
+        this(numFeatures, binary, idf, coefficients, intercept, threshold, null, null);
+    }
+
+    NativeLogisticRegressionModel(int numFeatures, boolean binary, DoubleBuffer idf,
+                                  DoubleBuffer coefficients, double intercept, double threshold,
+                                  MappedByteBuffer mapping, File source) {
+        this.featurizer = new HashingFeaturizer(numFeatures, binary);
+        this.idf = idf;
+        this.coefficients = coefficients;
+        this.intercept = intercept;
+        this.threshold = threshold;
+        this.mapping = mapping;
+        this.source = source;
+    }
+
+    /**
+     * Extracts the fitted stages from {@code model}.
+     *
+     * @throws UnsupportedOperationException if the pipeline is not the binary
+     *         Tokenizer/HashingTF/IDF/LogisticRegression layout trained by the learning pipeline
+     */
+    public static NativeLogisticRegressionModel from(PipelineModel model) {
+        Transformer[] stages = model.stages();
+        if (stages.length != 4
+                || !(stages[0] instanceof Tokenizer)
+                || !(stages[1] instanceof HashingTF)
+                || !(stages[2] instanceof IDFModel)
+                || !(stages[3] instanceof LogisticRegressionModel)) {
+            throw new UnsupportedOperationException("Unsupported pipeline layout: " + Arrays.toString(stages));
+        }
+        HashingTF hashingTF = (HashingTF) stages[1];
+        IDFModel idfModel = (IDFModel) stages[2];
+        LogisticRegressionModel lr = (LogisticRegressionModel) stages[3];
+        if (lr.numClasses() != 2) {
+            throw new UnsupportedOperationException("Only binomial logistic regression is supported");
+        }
+
+        return new NativeLogisticRegressionModel(hashingTF.getNumFeatures(), hashingTF.getBinary(),
+                DoubleBuffer.wrap(idfModel.idf().toArray()), DoubleBuffer.wrap(lr.coefficients().toArray()),
+                lr.intercept(), lr.getThreshold());
+    }
+
+    /**
+     * Returns the predicted label (1.0 positive, 0.0 negative) for a raw review.
+     */
+    public double predict(String review) {
+        return probability(review) > threshold ? 1.0 : 0.0;
+    }
+
+    /**
+     * Returns the probability of the positive class, before the threshold is applied.
+     */
+    public double probability(String review) {
+        // Tokenizer + HashingTF, accumulated into this thread's reusable vector
+        SparseTermVector terms = TERMS.get();
+        featurizer.featurize(review, terms);
+
+        // IDF scaling followed by the sparse-dense dot product, summed in index order like BLAS.dot
+        double margin = 0.0;
+        for (int k = 0; k < terms.size(); k++) {
+            int index = terms.indexAt(k);
+            double feature = terms.valueAt(k) * idf.get(index);
+            margin += feature * coefficients.get(index);
+        }
+        margin += intercept;
+
+        return 1.0 / (1.0 + Math.exp(-margin));
+    }
+
+    public int getNumFeatures() {
+        return featurizer.getNumFeatures();
+    }
+
+    /**
+     * Bytes held by the weight vectors, on the heap or in a mapping depending on {@link #isMapped()}.
+     */
+    long sizeBytes() {
+        return 8L * (idf.capacity() + coefficients.capacity());
+    }
+
+    boolean isMapped() {
+        return idf.isDirect();
+    }
+
+    /**
+     * Unmaps the weights and deletes the mapped file, for a model that will never score again;
+     * scoring after this crashes the JVM. Weights extracted from Spark are left to the collector.
+     */
+    void close() {
+        if (mapping == null) {
+            return;
+        }
+        try {
+            // JDK 8 has no public unmap; without it the pages stay mapped until a GC finds the buffer
+            Method cleanerMethod = mapping.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(mapping);
+            cleaner.getClass().getMethod("clean").invoke(cleaner);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // the collector unmaps it instead
+        }
+        source.delete();
+    }
+}
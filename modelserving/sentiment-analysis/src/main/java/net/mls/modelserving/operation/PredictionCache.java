@@ -0,0 +1,172 @@
+package net.mls.modelserving.operation;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Bounded prediction cache in front of the scoring engine. Caffeine's W-TinyLFU policy keeps
+ * frequently repeated reviews resident, and identical concurrent lookups share one computation.
+ * The cache holds the future of each prediction: the mapping function only installs it, and the
+ * prediction is computed and awaited outside Caffeine's lock, so a slow or coalesced score never
+ * stalls writers to other keys. A failed prediction is removed rather than cached. Entries are
+ * keyed by model version, so a new model never serves predictions from the previous one.
+ */
+@Component
+public class PredictionCache implements PublicMetrics {
+
+    @Value("${prediction.cache.enabled:true}")
+    private boolean enabled;
+    @Value("${prediction.cache.maxSize:100000}")
+    private long maxSize;
+    @Value("${prediction.cache.ttlSeconds:3600}")
+    private long ttlSeconds;
+
+    private Cache<Key, CompletableFuture<String>> cache;
+
+    @PostConstruct
+    private void init() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    public String get(String modelVersion, String review, Function<String, CompletableFuture<String>> loader) {
+        if (!enabled) {
+            return join(loader.apply(review));
+        }
+        Key key = new Key(modelVersion, review);
+        CompletableFuture<String> created = new CompletableFuture<>();
+        CompletableFuture<String> result = cache.get(key, k -> created);
+        if (result == created) {
+            try {
+                loader.apply(review).whenComplete((prediction, error) -> {
+                    if (error == null) {
+                        created.complete(prediction);
+                    } else {
+                        created.completeExceptionally(error);
+                    }
+                });
+            } catch (RuntimeException e) {
+                created.completeExceptionally(e);
+            }
+            created.whenComplete((prediction, error) -> {
+                if (error != null) {
+                    cache.asMap().remove(key, created);
+                }
+            });
+        }
+        return join(result);
+    }
+
+    /**
+     * Batch variant: hits are answered from the cache and only the misses are handed to
+     * {@code loader} in one call. Results are returned in input order.
+     */
+    public List<String> getAll(String modelVersion, List<String> reviews, Function<List<String>, List<String>> loader) {
+        if (!enabled) {
+            return loader.apply(reviews);
+        }
+        List<Key> keys = new ArrayList<>(reviews.size());
+        for (String review : reviews) {
+            keys.add(new Key(modelVersion, review));
+        }
+        Map<Key, CompletableFuture<String>> hits = cache.getAllPresent(keys);
+
+        List<String> misses = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            if (!hits.containsKey(keys.get(i))) {
+                misses.add(reviews.get(i));
+            }
+        }
+        List<String> computed = misses.isEmpty() ? misses : loader.apply(misses);
+
+        List<String> results = new ArrayList<>(reviews.size());
+        int next = 0;
+        for (Key key : keys) {
+            CompletableFuture<String> hit = hits.get(key);
+            String result;
+            if (hit == null) {
+                result = computed.get(next++);
+                cache.put(key, CompletableFuture.completedFuture(result));
+            } else {
+                result = join(hit);
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    private static String join(CompletableFuture<String> prediction) {
+        try {
+            return prediction.join();
+        } catch (CompletionException e) {
+            // rethrow what the scorer threw, as a direct call would
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        CacheStats stats = cache.stats();
+        return Arrays.<Metric<?>>asList(
+                new Metric<>("cache.predictions.size", cache.estimatedSize()),
+                new Metric<>("cache.predictions.hit", stats.hitCount()),
+                new Metric<>("cache.predictions.miss", stats.missCount()),
+                new Metric<>("cache.predictions.eviction", stats.evictionCount()),
+                new Metric<>("cache.predictions.hit.ratio", stats.hitRate()));
+    }
+
+    /**
+     * The tokenizer lowercases before anything else, so lowercasing is the only
+     * normalization that cannot change a prediction; whitespace is significant.
+     */
+    private static final class Key {
+        private final String modelVersion;
+        private final String text;
+        private final int hash;
+
+        Key(String modelVersion, String review) {
+            this.modelVersion = String.valueOf(modelVersion);
+            this.text = review.toLowerCase();
+            this.hash = 31 * this.modelVersion.hashCode() + text.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && modelVersion.equals(other.modelVersion) && text.equals(other.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package net.mls.modelserving.operation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects concurrent single-review requests for up to {@code prediction.coalescer.windowMs}
+ * or {@code prediction.coalescer.maxBatch} requests, whichever comes first, and scores them
+ * with one {@link ModelSnapshot#applyAll} call. Each caller gets its own result through a future.
+ */
+@Component
+public class PredictionCoalescer {
+    private static final Logger LOG = LoggerFactory.getLogger(PredictionCoalescer.class);
+
+    @Value("${prediction.coalescer.enabled:false}")
+    private boolean enabled;
+    @Value("${prediction.coalescer.windowMs:2}")
+    private long windowMs;
+    @Value("${prediction.coalescer.maxBatch:64}")
+    private int maxBatch;
+    @Value("${prediction.coalescer.threads:1}")
+    private int threads;
+
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final List<Thread> dispatchers = new ArrayList<>();
+    private volatile boolean running;
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        for (int i = 0; i < threads; i++) {
+            Thread dispatcher = new Thread(this::dispatch, "prediction-coalescer-" + i);
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+            dispatchers.add(dispatcher);
+        }
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        running = false;
+        dispatchers.forEach(Thread::interrupt);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public CompletableFuture<String> submit(ModelSnapshot model, String review) {
+        if (!enabled) {
+            return CompletableFuture.completedFuture(model.apply(review));
+        }
+        Pending pending = new Pending(model, review);
+        queue.add(pending);
+        return pending.result;
+    }
+
+    private void dispatch() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        while (running) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMs);
+                while (batch.size() < maxBatch) {
+                    long remaining = deadline - System.nanoTime();
+                    Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                score(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private static void score(List<Pending> batch) {
+        // a model swap may land mid-window; every request is scored by the snapshot it resolved
+        Map<ModelSnapshot, List<Pending>> byModel = new LinkedHashMap<>();
+        for (Pending pending : batch) {
+            byModel.computeIfAbsent(pending.model, m -> new ArrayList<>()).add(pending);
+        }
+        for (Map.Entry<ModelSnapshot, List<Pending>> entry : byModel.entrySet()) {
+            List<Pending> group = entry.getValue();
+            List<String> reviews = new ArrayList<>(group.size());
+            for (Pending pending : group) {
+                reviews.add(pending.review);
+            }
+            try {
+                List<String> results = entry.getKey().applyAll(reviews);
+                for (int i = 0; i < group.size(); i++) {
+                    group.get(i).result.complete(results.get(i));
+                }
+            } catch (Exception e) {
+                LOG.warn("Coalesced batch of {} failed", group.size(), e);
+                group.forEach(pending -> pending.result.completeExceptionally(e));
+            }
+        }
+    }
+
+    private static final class Pending {
+        private final ModelSnapshot model;
+        private final String review;
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+
+        Pending(ModelSnapshot model, String review) {
+            this.model = model;
+            this.review = review;
+        }
+    }
+}
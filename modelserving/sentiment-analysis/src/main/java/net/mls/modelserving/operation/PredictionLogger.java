@@ -0,0 +1,241 @@
+package net.mls.modelserving.operation;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import net.mls.modelserving.util.RingBuffer;
+import net.mls.modelserving.util.S3Client;
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Captures every served prediction for the retraining feedback loop. Request threads only put
+ * a record into a {@link RingBuffer}; a background thread drains it into rolling Avro container
+ * files under {@code predictionLog.dir} and, when {@code predictionLog.s3Prefix} is set, uploads
+ * each finished file to {@code s3.bucketName}. A full buffer drops the record and counts it.
+ * The positive-class probability is computed on the background thread, so a cached or
+ * coalesced prediction costs the request nothing extra.
+ */
+@Component
+public class PredictionLogger {
+    private static final Logger LOG = LoggerFactory.getLogger(PredictionLogger.class);
+    private static final String SCHEMA_RESOURCE = "avro/prediction.avsc";
+
+    @Value("${predictionLog.enabled:false}")
+    private boolean enabled;
+    @Value("${predictionLog.dir:${java.io.tmpdir}/predictions}")
+    private String dir;
+    @Value("${predictionLog.bufferSize:65536}")
+    private int bufferSize;
+    @Value("${predictionLog.batchSize:1024}")
+    private int batchSize;
+    @Value("${predictionLog.flushIntervalMs:200}")
+    private long flushIntervalMs;
+    @Value("${predictionLog.rollSizeMb:64}")
+    private long rollSizeMb;
+    @Value("${predictionLog.rollIntervalMs:300000}")
+    private long rollIntervalMs;
+    @Value("${predictionLog.s3Prefix:}")
+    private String s3Prefix;
+    @Value("${s3.accessKey}")
+    private String accessKey;
+    @Value("${s3.secretKey}")
+    private String secretKey;
+    @Value("${s3.endpoint}")
+    private String endpoint;
+    @Value("${s3.bucketName}")
+    private String bucketName;
+
+    @Autowired
+    private MetricRegistry registry;
+
+    private RingBuffer<Entry> buffer;
+    private Schema schema;
+    private S3Client client;
+    private Counter written;
+    private Counter dropped;
+    private Counter files;
+    private Thread writer;
+    private volatile boolean running;
+
+    private DataFileWriter<GenericRecord> out;
+    private File current;
+    private long openedAt;
+    private int sequence = 0;
+
+    @PostConstruct
+    private void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        try (InputStream is = PredictionLogger.class.getClassLoader().getResourceAsStream(SCHEMA_RESOURCE)) {
+            schema = new Schema.Parser().parse(is);
+        }
+        if (!s3Prefix.isEmpty()) {
+            client = new S3Client(accessKey, secretKey, endpoint);
+        }
+        new File(dir).mkdirs();
+        buffer = new RingBuffer<>(bufferSize);
+        written = registry.counter("predictionlog.written");
+        dropped = registry.counter("predictionlog.dropped");
+        files = registry.counter("predictionlog.files");
+        registry.register("predictionlog.buffer.size", (Gauge<Integer>) buffer::size);
+
+        running = true;
+        writer = new Thread(this::run, "prediction-logger");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    private void shutdown() throws InterruptedException {
+        if (!enabled) {
+            return;
+        }
+        running = false;
+        writer.interrupt();
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    /**
+     * Records a served prediction without blocking.
+     */
+    public void log(ModelSnapshot model, String review, String prediction) {
+        if (enabled && !buffer.offer(new Entry(review, model, prediction, System.currentTimeMillis()))) {
+            dropped.inc();
+        }
+    }
+
+    public void log(ModelSnapshot model, List<String> reviews, List<String> predictions) {
+        if (!enabled) {
+            return;
+        }
+        for (int i = 0; i < reviews.size(); i++) {
+            log(model, reviews.get(i), predictions.get(i));
+        }
+    }
+
+    private void run() {
+        List<Entry> batch = new ArrayList<>(batchSize);
+        while (running || buffer.size() > 0) {
+            try {
+                if (buffer.drainTo(batch, batchSize) == 0) {
+                    if (running) {
+                        TimeUnit.MILLISECONDS.sleep(flushIntervalMs);
+                    }
+                } else {
+                    append(batch);
+                }
+            } catch (InterruptedException e) {
+                // shutdown: fall through to drain what is left
+                running = false;
+            } catch (Exception e) {
+                LOG.warn("Failed to write {} prediction records", batch.size(), e);
+                dropped.inc(batch.size());
+            } finally {
+                batch.clear();
+            }
+            // records already appended are on disk even if rolling the file fails
+            try {
+                if (out != null && (current.length() >= rollSizeMb * 1024L * 1024L
+                        || System.currentTimeMillis() - openedAt >= rollIntervalMs)) {
+                    roll();
+                }
+            } catch (Exception e) {
+                LOG.warn("Failed to roll prediction log {}", current, e);
+            }
+        }
+        try {
+            roll();
+        } catch (IOException e) {
+            LOG.warn("Failed to close prediction log {}", current, e);
+        }
+    }
+
+    private void append(List<Entry> batch) throws IOException {
+        if (out == null) {
+            open();
+        }
+        for (Entry entry : batch) {
+            GenericRecord record = new GenericData.Record(schema);
+            record.put("review", entry.review);
+            record.put("modelVersion", entry.model.getVersion());
+            record.put("prediction", entry.prediction);
+            record.put("label", ModelSnapshot.labelOf(entry.prediction));
+            record.put("probability", entry.model.probability(entry.review));
+            record.put("timestamp", entry.timestamp);
+            out.append(record);
+        }
+        // one block per batch, so a crash loses at most the batch in flight
+        out.flush();
+        written.inc(batch.size());
+    }
+
+    private void open() throws IOException {
+        openedAt = System.currentTimeMillis();
+        current = new File(dir, "predictions-" + InetAddress.getLocalHost().getHostName()
+                + "-" + openedAt + "-" + (sequence++) + ".avro.inprogress");
+        out = new DataFileWriter<>(new GenericDatumWriter<GenericRecord>(schema));
+        out.setCodec(CodecFactory.deflateCodec(1));
+        out.create(schema, current);
+    }
+
+    private void roll() throws IOException {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } finally {
+            out = null;
+        }
+        String name = current.getName();
+        File finished = new File(dir, name.substring(0, name.length() - ".inprogress".length()));
+        if (!current.renameTo(finished)) {
+            throw new IOException("Failed to rename " + current + " to " + finished);
+        }
+        files.inc();
+        if (client != null) {
+            try {
+                client.upload(bucketName, s3Prefix + finished.getName(), finished);
+                finished.delete();
+            } catch (Exception e) {
+                // the file stays on disk for a later retry or manual pickup
+                LOG.warn("Failed to upload prediction log {}", finished, e);
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final String review;
+        private final ModelSnapshot model;
+        private final String prediction;
+        private final long timestamp;
+
+        Entry(String review, ModelSnapshot model, String prediction, long timestamp) {
+            this.review = review;
+            this.model = model;
+            this.prediction = prediction;
+            this.timestamp = timestamp;
+        }
+    }
+}
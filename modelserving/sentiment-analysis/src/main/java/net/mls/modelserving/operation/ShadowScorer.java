@@ -0,0 +1,159 @@
+package net.mls.modelserving.operation;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import net.mls.modelserving.metrics.PredictionMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scores a sample of live traffic against a candidate model on its own bounded pool, after the
+ * live answer has been produced. Both models are timed on the shadow thread so their latencies
+ * are comparable, and the candidate's answers are compared with what was actually served.
+ * When the shadow queue is full the work is dropped and counted; the live path never waits.
+ */
+@Component
+public class ShadowScorer {
+    private static final Logger LOG = LoggerFactory.getLogger(ShadowScorer.class);
+
+    @Value("${shadow.enabled:false}")
+    private boolean enabled;
+    @Value("${shadow.artifact:}")
+    private String artifact;
+    @Value("${shadow.sampleRate:0.1}")
+    private double sampleRate;
+    @Value("${shadow.threads:1}")
+    private int threads;
+    @Value("${shadow.queueCapacity:1000}")
+    private int queueCapacity;
+
+    @Autowired
+    private LogisticRegressionOperation op;
+    @Autowired
+    private MetricRegistry registry;
+
+    private volatile ModelSnapshot candidate = null;
+    private ThreadPoolExecutor executor;
+    private Timer liveLatency;
+    private Timer candidateLatency;
+    private Counter agreed;
+    private Counter disagreed;
+    private Counter dropped;
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        liveLatency = registry.timer("shadow.latency.live");
+        candidateLatency = registry.timer("shadow.latency.candidate");
+        agreed = registry.counter("shadow.predictions.agreed");
+        disagreed = registry.counter("shadow.predictions.disagreed");
+        dropped = registry.counter("shadow.dropped");
+        registry.register("shadow.agreement.rate", (Gauge<Double>) () -> {
+            long total = agreed.getCount() + disagreed.getCount();
+            return total == 0 ? 0.0 : (double) agreed.getCount() / total;
+        });
+
+        AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread thread = new Thread(r, "shadow-" + count.getAndIncrement());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+
+        // the candidate loads in the background; until then shadow work is simply skipped
+        executor.execute(() -> {
+            try {
+                reload();
+            } catch (Exception e) {
+                LOG.error("Failed to load shadow candidate {}", artifact, e);
+            }
+        });
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Loads the candidate artifact again, e.g. after a new one was uploaded.
+     */
+    public synchronized ModelSnapshot reload() throws IOException {
+        if (!enabled) {
+            throw new IllegalStateException("Shadow scoring is disabled");
+        }
+        // the shadow timers below are the candidate's only metrics; keep it out of the live stage timers
+        candidate = op.loadArtifact(artifact).withMetrics(PredictionMetrics.disabled());
+        LOG.info("Shadow scoring against candidate version {}", candidate.getVersion());
+        return candidate;
+    }
+
+    public ModelSnapshot candidate() {
+        return candidate;
+    }
+
+    public void offer(ModelSnapshot live, String review, String served) {
+        offer(live, Collections.singletonList(review), Collections.singletonList(served));
+    }
+
+    /**
+     * Queues a sampled request for shadow scoring. Returns immediately in every case.
+     */
+    public void offer(ModelSnapshot live, List<String> reviews, List<String> served) {
+        ModelSnapshot shadow = candidate;
+        if (shadow == null || ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+        try {
+            executor.execute(() -> compare(live.withMetrics(PredictionMetrics.disabled()), shadow, reviews, served));
+        } catch (RejectedExecutionException e) {
+            dropped.inc();
+        }
+    }
+
+    private void compare(ModelSnapshot live, ModelSnapshot shadow, List<String> reviews, List<String> served) {
+        try {
+            long start = System.nanoTime();
+            live.applyAll(reviews);
+            long mid = System.nanoTime();
+            List<String> predicted = shadow.applyAll(reviews);
+            long end = System.nanoTime();
+            liveLatency.update(mid - start, TimeUnit.NANOSECONDS);
+            candidateLatency.update(end - mid, TimeUnit.NANOSECONDS);
+
+            int agreements = 0;
+            for (int i = 0; i < predicted.size(); i++) {
+                if (predicted.get(i).equals(served.get(i))) {
+                    agreements++;
+                }
+            }
+            agreed.inc(agreements);
+            disagreed.inc(predicted.size() - agreements);
+        } catch (Exception e) {
+            LOG.warn("Shadow scoring of {} reviews failed", reviews.size(), e);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package net.mls.modelserving.service;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Adaptive concurrency limit in front of /lreg and /lreg/batch. Each finished request is a
+ * latency sample: a request within {@code admission.sloMs} while at least half the limit is in use
+ * grows the limit by one, and a request over the SLO shrinks it by {@code admission.backoffRatio}.
+ * Only one shrink happens per overload episode, since requests admitted before the last shrink say
+ * nothing about the new limit. Requests beyond the limit are rejected with 503 and Retry-After
+ * before any work is queued.
+ * <p>
+ * A batch takes one slot per review, capped at the whole limit so that any batch can run on an
+ * idle pod, and its latency is sampled per slot so batches are held to the same SLO as single
+ * reviews.
+ */
+@Component
+public class AdmissionController {
+
+    @Value("${admission.enabled:false}")
+    private boolean enabled;
+    @Value("${admission.sloMs:50}")
+    private long sloMs;
+    @Value("${admission.initialLimit:20}")
+    private int initialLimit;
+    @Value("${admission.minLimit:1}")
+    private int minLimit;
+    @Value("${admission.maxLimit:200}")
+    private int maxLimit;
+    @Value("${admission.backoffRatio:0.9}")
+    private double backoffRatio;
+    @Value("${admission.retryAfterSeconds:1}")
+    private int retryAfterSeconds;
+
+    @Autowired
+    private MetricRegistry registry;
+
+    @Autowired
+    private PredictionExecutor executor;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile double limit;
+    private long lastDecrease;
+    private long sloNanos;
+    private Counter rejected;
+
+    @PostConstruct
+    private void init() {
+        limit = initialLimit;
+        sloNanos = TimeUnit.MILLISECONDS.toNanos(sloMs);
+        lastDecrease = System.nanoTime();
+        rejected = registry.counter("admission.rejected");
+        registry.register("admission.limit", (Gauge<Integer>) () -> (int) limit);
+        registry.register("admission.inflight", (Gauge<Integer>) inFlight::get);
+        registry.register("admission.queue.depth", (Gauge<Integer>) executor::getQueueSize);
+    }
+
+    /**
+     * Admits a request or rejects it right away.
+     *
+     * @return a permit to release once the response is complete
+     * @throws AdmissionRejectedException if the current limit is reached
+     */
+    public Permit acquire() {
+        return acquire(1);
+    }
+
+    /**
+     * Admits a batch of {@code reviews} reviews or rejects it right away.
+     *
+     * @return a permit to release once the response is complete
+     * @throws AdmissionRejectedException if the batch does not fit under the current limit
+     */
+    public Permit acquire(int reviews) {
+        if (!enabled) {
+            return Permit.NONE;
+        }
+        while (true) {
+            int current = inFlight.get();
+            int max = (int) limit;
+            int slots = Math.max(1, Math.min(reviews, max));
+            if (current + slots > max) {
+                rejected.inc();
+                throw new AdmissionRejectedException(retryAfterSeconds);
+            }
+            if (inFlight.compareAndSet(current, current + slots)) {
+                return new Permit(this, System.nanoTime(), slots, current + slots);
+            }
+        }
+    }
+
+    private synchronized void onSample(long start, long latency, int inFlightAtStart) {
+        if (latency > sloNanos) {
+            if (start - lastDecrease > 0) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                lastDecrease = System.nanoTime();
+            }
+        } else if (inFlightAtStart * 2 >= limit) {
+            // only grow while the limit is actually being used, or an idle pod drifts to maxLimit
+            limit = Math.min(maxLimit, limit + 1);
+        }
+    }
+
+    public static class Permit {
+        public static final Permit NONE = new Permit(null, 0L, 0, 0);
+
+        private final AdmissionController controller;
+        private final long start;
+        private final int slots;
+        private final int inFlightAtStart;
+
+        private Permit(AdmissionController controller, long start, int slots, int inFlightAtStart) {
+            this.controller = controller;
+            this.start = start;
+            this.slots = slots;
+            this.inFlightAtStart = inFlightAtStart;
+        }
+
+        public void release() {
+            if (controller == null) {
+                return;
+            }
+            controller.inFlight.addAndGet(-slots);
+            controller.onSample(start, (System.nanoTime() - start) / slots, inFlightAtStart);
+        }
+
+        /**
+         * Gives the slot back without counting the request as a latency sample.
+         */
+        public void abandon() {
+            if (controller != null) {
+                controller.inFlight.addAndGet(-slots);
+            }
+        }
+    }
+}
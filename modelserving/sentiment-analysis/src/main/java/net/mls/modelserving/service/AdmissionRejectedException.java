@@ -0,0 +1,14 @@
+package net.mls.modelserving.service;
+
+public class AdmissionRejectedException extends RuntimeException {
+    private final int retryAfterSeconds;
+
+    public AdmissionRejectedException(int retryAfterSeconds) {
+        super("Concurrency limit reached, retry in " + retryAfterSeconds + " s");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
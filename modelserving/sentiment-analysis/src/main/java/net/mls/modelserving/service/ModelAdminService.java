@@ -0,0 +1,76 @@
+package net.mls.modelserving.service;
+
+import net.mls.modelserving.operation.LogisticRegressionOperation;
+import net.mls.modelserving.operation.ModelSnapshot;
+import net.mls.modelserving.operation.ShadowScorer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("admin/model")
+public class ModelAdminService {
+
+    @Autowired
+    private LogisticRegressionOperation op;
+
+    @Autowired
+    private ShadowScorer shadow;
+
+    @RequestMapping(method = RequestMethod.GET)
+    public Map<String, Object> getModel() {
+        return describe();
+    }
+
+    @RequestMapping(value = "reload", method = RequestMethod.POST)
+    public Map<String, Object> reload() throws IOException {
+        op.reload();
+        return describe();
+    }
+
+    @RequestMapping(value = "rollback", method = RequestMethod.POST)
+    public Map<String, Object> rollback() {
+        op.rollback();
+        return describe();
+    }
+
+    @RequestMapping(value = "shadow/reload", method = RequestMethod.POST)
+    public Map<String, Object> reloadShadow() throws IOException {
+        shadow.reload();
+        return describe();
+    }
+
+    @ExceptionHandler(IllegalStateException.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    public String handleIllegalState(IllegalStateException e) {
+        return e.getMessage();
+    }
+
+    private Map<String, Object> describe() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("current", describe(op.current()));
+        result.put("previous", describe(op.previous()));
+        result.put("rolledBack", op.getRolledBackVersion());
+        result.put("shadow", describe(shadow.candidate()));
+        return result;
+    }
+
+    private static Map<String, Object> describe(ModelSnapshot snapshot) {
+        if (snapshot == null) {
+            return null;
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("version", snapshot.getVersion());
+        result.put("loadedAt", snapshot.getLoadedAt());
+        result.put("native", snapshot.isNative());
+        return result;
+    }
+}
@@ -0,0 +1,80 @@
+package net.mls.modelserving.service;
+
+import net.mls.modelserving.metrics.PredictionMetrics;
+import net.mls.modelserving.metrics.PredictionMetrics.Stage;
+import net.mls.modelserving.operation.ModelRegistry;
+import net.mls.modelserving.operation.ModelSnapshot;
+import net.mls.modelserving.operation.PredictionCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Scores against models served from the {@link ModelRegistry}. Without a version the
+ * {@code latest} artifact of the model is used.
+ */
+@RestController
+@RequestMapping("models")
+public class ModelRegistryService {
+
+    @Autowired
+    private ModelRegistry registry;
+
+    @Autowired
+    private PredictionCache cache;
+
+    @Autowired
+    private PredictionExecutor executor;
+
+    @RequestMapping(method = RequestMethod.GET)
+    public List<Map<String, Object>> getModels() {
+        return registry.describe();
+    }
+
+    @RequestMapping(value = "{name}/predict", method = RequestMethod.POST)
+    public DeferredResult<String> getPrediction(@PathVariable String name, @RequestBody String review) {
+        return predict(name, ModelRegistry.LATEST, review);
+    }
+
+    @RequestMapping(value = "{name}/versions/{version:.+}/predict", method = RequestMethod.POST)
+    public DeferredResult<String> getPrediction(@PathVariable String name, @PathVariable String version,
+                                                @RequestBody String review) {
+        return predict(name, version, review);
+    }
+
+    private DeferredResult<String> predict(String name, String version, String review) {
+        ModelSnapshot model = registry.get(name, version);
+        PredictionMetrics metrics = model.getMetrics();
+        long start = metrics.start();
+        metrics.requestStarted(1);
+        DeferredResult<String> result;
+        try {
+            result = executor.submit(() -> {
+                // retained for the scoring itself: an evicted model is freed once nothing scores with it
+                ModelSnapshot scorer = registry.acquire(name, version);
+                try {
+                    return cache.get(scorer.getVersion(), review,
+                            r -> CompletableFuture.completedFuture(scorer.apply(r)));
+                } finally {
+                    scorer.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            metrics.requestFinished();
+            throw e;
+        }
+        result.onCompletion(() -> {
+            metrics.stop(Stage.REQUEST, start);
+            metrics.requestFinished();
+        });
+        return result;
+    }
+}
@@ -0,0 +1,92 @@
+package net.mls.modelserving.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs scoring off the Tomcat worker threads on a dedicated bounded pool. A full queue
+ * rejects immediately with 429, and a request that outlives {@code prediction.async.timeoutMs}
+ * is answered with 503 and dropped from the queue if it has not started yet.
+ * With {@code prediction.async.enabled=false} work runs inline on the request thread.
+ */
+@Component
+public class PredictionExecutor {
+
+    @Value("${prediction.async.enabled:false}")
+    private boolean enabled;
+    @Value("${prediction.async.threads:4}")
+    private int threads;
+    @Value("${prediction.async.queueCapacity:256}")
+    private int queueCapacity;
+    @Value("${prediction.async.timeoutMs:1000}")
+    private long timeoutMs;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread thread = new Thread(r, "prediction-" + count.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public <T> DeferredResult<T> submit(Supplier<T> task) {
+        if (!enabled) {
+            DeferredResult<T> result = new DeferredResult<>();
+            result.setResult(task.get());
+            return result;
+        }
+
+        DeferredResult<T> result = new DeferredResult<>(timeoutMs);
+        Future<?> future;
+        try {
+            future = executor.submit(() -> {
+                try {
+                    result.setResult(task.get());
+                } catch (Exception e) {
+                    result.setErrorResult(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            throw new PredictionRejectedException("Prediction queue is full");
+        }
+        result.onTimeout(() -> {
+            future.cancel(false);
+            result.setErrorResult(new PredictionTimeoutException(timeoutMs));
+        });
+        return result;
+    }
+
+    public int getQueueSize() {
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor == null ? 0 : executor.getActiveCount();
+    }
+}
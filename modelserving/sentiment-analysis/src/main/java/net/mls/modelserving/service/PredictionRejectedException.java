@@ -0,0 +1,11 @@
+package net.mls.modelserving.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+public class PredictionRejectedException extends RuntimeException {
+    public PredictionRejectedException(String message) {
+        super(message);
+    }
+}
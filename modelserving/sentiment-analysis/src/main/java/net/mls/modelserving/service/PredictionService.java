@@ -1,11 +1,29 @@
 package net.mls.modelserving.service;
 
+import net.mls.modelserving.metrics.PredictionMetrics;
+import net.mls.modelserving.metrics.PredictionMetrics.Stage;
 import net.mls.modelserving.operation.LogisticRegressionOperation;
+import net.mls.modelserving.operation.ModelSnapshot;
+import net.mls.modelserving.operation.PredictionCache;
+import net.mls.modelserving.operation.PredictionCoalescer;
+import net.mls.modelserving.operation.PredictionLogger;
+import net.mls.modelserving.operation.ShadowScorer;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * Created by char on 2/26/18.
@@ -16,9 +34,98 @@ public class PredictionService {
     @Autowired
     private LogisticRegressionOperation op;
 
+    @Autowired
+    private PredictionCache cache;
+
+    @Autowired
+    private PredictionCoalescer coalescer;
+
+    @Autowired
+    private PredictionExecutor executor;
+
+    @Autowired
+    private ShadowScorer shadow;
+
+    @Autowired
+    private AdmissionController admission;
+
+    @Autowired
+    private PredictionLogger predictionLog;
+
+    @Autowired
+    private PredictionMetrics metrics;
+
+    @Value("${prediction.batch.maxSize:1000}")
+    private int maxBatchSize;
+
     @RequestMapping(value = "lreg", method = RequestMethod.POST)
-    public String getPrediction(@RequestBody String review) {
+    public DeferredResult<String> getPrediction(@RequestBody String review) {
+
+        ModelSnapshot model = this.op.current();
+        AdmissionController.Permit permit = this.admission.acquire();
+        long start = this.metrics.start();
+        this.metrics.requestStarted(1);
+        return instrument(() -> this.executor.submit(() -> {
+            String result = this.cache.get(model.getVersion(), review, r -> this.coalescer.submit(model, r));
+            this.shadow.offer(model, review, result);
+            this.predictionLog.log(model, review, result);
+            return succeeded(result);
+        }), start, permit);
+    }
+
+    @RequestMapping(value = "lreg/batch", method = RequestMethod.POST, consumes = MediaType.APPLICATION_JSON_VALUE)
+    public DeferredResult<List<String>> getPredictions(@RequestBody List<String> reviews) {
+        return predictAll(reviews);
+    }
+
+    @RequestMapping(value = "lreg/batch", method = RequestMethod.POST, consumes = MediaType.TEXT_PLAIN_VALUE)
+    public DeferredResult<List<String>> getPredictions(@RequestBody String reviews) {
+        return predictAll(Arrays.asList(reviews.split("\r?\n")));
+    }
+
+    private DeferredResult<List<String>> predictAll(List<String> reviews) {
+        if (reviews.size() > maxBatchSize) {
+            throw new BatchTooLargeException(reviews.size(), maxBatchSize);
+        }
+        ModelSnapshot model = this.op.current();
+        AdmissionController.Permit permit = this.admission.acquire(reviews.size());
+        long start = this.metrics.start();
+        this.metrics.requestStarted(reviews.size());
+        return instrument(() -> this.executor.submit(() -> {
+            List<String> results = this.cache.getAll(model.getVersion(), reviews, model::applyAll);
+            this.shadow.offer(model, reviews, results);
+            this.predictionLog.log(model, reviews, results);
+            return succeeded(results);
+        }), start, permit);
+    }
+
+    private <T> T succeeded(T result) {
+        this.metrics.predictionSucceeded();
+        return result;
+    }
+
+    @ExceptionHandler(AdmissionRejectedException.class)
+    public ResponseEntity<String> handleAdmissionRejected(AdmissionRejectedException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(e.getMessage());
+    }
 
-        return this.op.apply(review);
+    private <T> DeferredResult<T> instrument(Supplier<DeferredResult<T>> request, long start,
+                                             AdmissionController.Permit permit) {
+        DeferredResult<T> result;
+        try {
+            result = request.get();
+        } catch (RuntimeException e) {
+            this.metrics.requestFinished();
+            permit.abandon();
+            throw e;
+        }
+        result.onCompletion(() -> {
+            this.metrics.stop(Stage.REQUEST, start);
+            this.metrics.requestFinished();
+            permit.release();
+        });
+        return result;
     }
 }
@@ -0,0 +1,11 @@
+package net.mls.modelserving.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class PredictionTimeoutException extends RuntimeException {
+    public PredictionTimeoutException(long timeoutMs) {
+        super("Prediction did not complete within " + timeoutMs + " ms");
+    }
+}
@@ -0,0 +1,127 @@
+package net.mls.modelserving.util;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads an S3 object as a sequence of ranged GETs fetched in parallel and handed out in order.
+ * At most {@code window} parts are in flight or buffered at once, so memory stays at
+ * {@code window * partSize} regardless of object size.
+ */
+final class RangedObjectInputStream extends InputStream {
+    private final AmazonS3 client;
+    private final String bucket;
+    private final String key;
+    private final String eTag;
+    private final long length;
+    private final long partSize;
+    private final ExecutorService pool;
+    private final Deque<Future<byte[]>> parts = new ArrayDeque<>();
+
+    private long nextOffset = 0;
+    private byte[] current = new byte[0];
+    private int position = 0;
+
+    RangedObjectInputStream(AmazonS3 client, String bucket, String key, String eTag, long length,
+                            long partSize, int window, ExecutorService pool) {
+        this.client = client;
+        this.bucket = bucket;
+        this.key = key;
+        this.eTag = eTag;
+        this.length = length;
+        this.partSize = partSize;
+        this.pool = pool;
+        for (int i = 0; i < window; i++) {
+            scheduleNext();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return current[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public void close() {
+        parts.forEach(part -> part.cancel(true));
+        parts.clear();
+    }
+
+    private boolean fill() throws IOException {
+        while (position == current.length) {
+            Future<byte[]> part = parts.poll();
+            if (part == null) {
+                return false;
+            }
+            try {
+                current = part.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while fetching s3://" + bucket + "/" + key, e);
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to fetch s3://" + bucket + "/" + key, e.getCause());
+            }
+            position = 0;
+            scheduleNext();
+        }
+        return true;
+    }
+
+    private void scheduleNext() {
+        if (nextOffset >= length) {
+            return;
+        }
+        long start = nextOffset;
+        long end = Math.min(start + partSize, length) - 1;
+        nextOffset = end + 1;
+        parts.add(pool.submit(() -> fetch(start, end)));
+    }
+
+    private byte[] fetch(long start, long end) throws IOException {
+        GetObjectRequest request = new GetObjectRequest(bucket, key)
+                .withRange(start, end)
+                .withMatchingETagConstraint(eTag);
+        S3Object object = client.getObject(request);
+        if (object == null) {
+            throw new IOException("s3://" + bucket + "/" + key + " changed while downloading version " + eTag);
+        }
+        byte[] buffer = new byte[(int) (end - start + 1)];
+        try (InputStream in = object.getObjectContent()) {
+            int read = 0;
+            while (read < buffer.length) {
+                int n = in.read(buffer, read, buffer.length - read);
+                if (n < 0) {
+                    throw new IOException("Short read on s3://" + bucket + "/" + key + " range " + start + "-" + end);
+                }
+                read += n;
+            }
+        }
+        return buffer;
+    }
+}
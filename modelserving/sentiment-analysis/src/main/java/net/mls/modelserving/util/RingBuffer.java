@@ -0,0 +1,70 @@
+package net.mls.modelserving.util;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free buffer for many producers and a single consumer. Producers claim a slot
+ * with one CAS and never wait: when the buffer is full {@link #offer} returns false at once.
+ */
+public final class RingBuffer<T> {
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // written only by the consumer
+    private volatile long head = 0L;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    public boolean offer(T element) {
+        long claimed;
+        do {
+            claimed = tail.get();
+            if (claimed - head >= slots.length()) {
+                return false;
+            }
+        } while (!tail.compareAndSet(claimed, claimed + 1));
+        slots.lazySet((int) claimed & mask, element);
+        return true;
+    }
+
+    /**
+     * Moves up to {@code max} elements into {@code target}, stopping early at a slot that has
+     * been claimed but not yet published. Must only be called from the consumer thread.
+     *
+     * @return the number of elements moved
+     */
+    public int drainTo(List<? super T> target, int max) {
+        long next = head;
+        int drained = 0;
+        while (drained < max) {
+            int index = (int) next & mask;
+            T element = slots.get(index);
+            if (element == null) {
+                break;
+            }
+            slots.lazySet(index, null);
+            target.add(element);
+            next++;
+            drained++;
+        }
+        head = next;
+        return drained;
+    }
+
+    public int size() {
+        return (int) Math.max(0L, tail.get() - head);
+    }
+
+    public int capacity() {
+        return slots.length();
+    }
+}
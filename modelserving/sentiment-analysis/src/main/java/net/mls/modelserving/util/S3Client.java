@@ -5,9 +5,11 @@ import com.amazonaws.Protocol;
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.s3.AmazonS3Client;
-import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
 
 import java.io.File;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Created by char on 2/26/18.
@@ -23,11 +25,26 @@ public final class S3Client {
         client.setEndpoint(endpoint);
     }
 
-    public File download(String bucket, String output) {
-        String path = System.getProperty("java.io.tmpdir") + output.substring(output.lastIndexOf('/'));
-        File temp = new File(path);
-        client.getObject(new GetObjectRequest(bucket, output), temp);
-        return temp;
+    public String getETag(String bucket, String output) {
+        return getMetadata(bucket, output).getETag();
+    }
+
+    public ObjectMetadata getMetadata(String bucket, String output) {
+        return client.getObjectMetadata(bucket, output);
+    }
+
+    public void upload(String bucket, String output, File file) {
+        client.putObject(bucket, output, file);
+    }
+
+    /**
+     * Streams the object version described by {@code metadata} through parallel ranged GETs of
+     * {@code partSize} bytes, keeping at most {@code window} parts in flight on {@code pool}.
+     */
+    public InputStream openParallel(String bucket, String output, ObjectMetadata metadata,
+                                    long partSize, int window, ExecutorService pool) {
+        return new RangedObjectInputStream(client, bucket, output, metadata.getETag(),
+                metadata.getContentLength(), partSize, window, pool);
     }
 
 }
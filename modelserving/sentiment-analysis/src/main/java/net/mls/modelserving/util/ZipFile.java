@@ -1,6 +1,12 @@
 package net.mls.modelserving.util;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -8,34 +14,133 @@ import java.util.zip.ZipInputStream;
  * Created by char on 2/26/18.
  */
 public final class ZipFile {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // entries up to this size are inflated into memory and written on the pool
+    private static final int MAX_BUFFERED_ENTRY = 8 * 1024 * 1024;
+    // decompressed bytes held by queued writes at any one time
+    private static final int MAX_IN_FLIGHT = 64 * 1024 * 1024;
 
     public static String unpack(File zipFile) throws IOException {
         String filePath = zipFile.getAbsolutePath();
         String outputFolder = filePath.substring(0, filePath.lastIndexOf('.'));
 
-        try(ZipInputStream zis = new ZipInputStream(new FileInputStream(zipFile))) {
-            ZipEntry entry = zis.getNextEntry();
-            while (entry != null) {
-                File file = new File(outputFolder, entry.getName());
+        try (InputStream is = new FileInputStream(zipFile)) {
+            unpack(is, new File(outputFolder), null);
+        }
+        return outputFolder;
+    }
 
-                if(entry.isDirectory()) {
-                    file.mkdirs();
-                } else {
-                    File parent = file.getParentFile();
-                    if(!parent.exists()) {
-                        parent.mkdirs();
+    /**
+     * Unpacks a zip stream into {@code outputFolder} without staging the archive on disk.
+     * Entries are decompressed in stream order; when {@code pool} is given, each small entry is
+     * written to disk on the pool while the next one is being inflated. Queued writes hold at
+     * most {@code MAX_IN_FLIGHT} bytes, and an entry that outgrows {@code MAX_BUFFERED_ENTRY}
+     * is streamed straight to its file instead of being buffered.
+     */
+    public static void unpack(InputStream is, File outputFolder, ExecutorService pool) throws IOException {
+        String root = outputFolder.getCanonicalPath() + File.separator;
+        List<Future<?>> writes = new ArrayList<>();
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+
+        ZipInputStream zis = new ZipInputStream(new BufferedInputStream(is, BUFFER_SIZE));
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ZipEntry entry = zis.getNextEntry();
+        while (entry != null) {
+            File file = new File(outputFolder, entry.getName());
+            if (!file.getCanonicalPath().startsWith(root)) {
+                throw new IOException("Zip entry escapes the output folder: " + entry.getName());
+            }
+
+            if(entry.isDirectory()) {
+                file.mkdirs();
+            } else if (pool == null) {
+                write(file, zis, buffer);
+            } else if (entry.getSize() > MAX_BUFFERED_ENTRY) {
+                write(file, zis, buffer);
+            } else {
+                EntryBytes bytes = new EntryBytes(entry.getSize() > 0 ? (int) entry.getSize() : BUFFER_SIZE);
+                int location;
+                while (bytes.size() <= MAX_BUFFERED_ENTRY && (location = zis.read(buffer)) != -1) {
+                    bytes.write(buffer, 0, location);
+                }
+                if (bytes.size() > MAX_BUFFERED_ENTRY) {
+                    // size was not in the local header; finish this one on the calling thread
+                    try (OutputStream out = open(file)) {
+                        bytes.writeTo(out);
+                        copy(zis, out, buffer);
                     }
-                    try (BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(file))) {
-                        byte[] buffer = new byte[1024];
-                        int location;
-                        while((location = zis.read(buffer)) != -1) {
-                            bos.write(buffer, 0, location);
-                        }
+                } else {
+                    acquire(inFlight, bytes.size());
+                    try {
+                        writes.add(pool.submit(() -> {
+                            try {
+                                write(file, bytes.toInputStream(), new byte[BUFFER_SIZE]);
+                            } finally {
+                                inFlight.release(bytes.size());
+                            }
+                            return null;
+                        }));
+                    } catch (RuntimeException e) {
+                        inFlight.release(bytes.size());
+                        throw e;
                     }
                 }
-                entry = zis.getNextEntry();
             }
+            entry = zis.getNextEntry();
+        }
+
+        for (Future<?> write : writes) {
+            try {
+                write.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while unpacking", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to write zip entry", e.getCause());
+            }
+        }
+    }
+
+    private static void acquire(Semaphore inFlight, int bytes) throws IOException {
+        try {
+            inFlight.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while unpacking", e);
+        }
+    }
+
+    private static void write(File file, InputStream in, byte[] buffer) throws IOException {
+        try (OutputStream out = open(file)) {
+            copy(in, out, buffer);
+        }
+    }
+
+    private static OutputStream open(File file) throws IOException {
+        File parent = file.getParentFile();
+        if(!parent.exists()) {
+            parent.mkdirs();
+        }
+        return new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+    }
+
+    private static void copy(InputStream in, OutputStream out, byte[] buffer) throws IOException {
+        int location;
+        while((location = in.read(buffer)) != -1) {
+            out.write(buffer, 0, location);
+        }
+    }
+
+    /**
+     * Hands the buffered bytes to the writer without the copy {@code toByteArray()} makes.
+     */
+    private static final class EntryBytes extends ByteArrayOutputStream {
+        EntryBytes(int size) {
+            super(size);
+        }
+
+        InputStream toInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
         }
-        return outputFolder;
     }
 }
@@ -0,0 +1,68 @@
+#!/bin/sh
+# Application class data sharing for the service on JDK 8u40+, where AppCDS is the commercial
+# feature -XX:+UseAppCDS of the Oracle JDK. JDK 8 only archives classes that the application
+# class loader reads from plain jars on -cp. The build produces exactly that: the thin service
+# jar and its runtime dependencies, copied to target/lib at package time. train records the
+# classes a training run loads on that classpath and dumps them into an archive; run starts
+# the service on the same classpath with the archive, or without it on a JVM without AppCDS.
+#
+#   appcds.sh train   # record the classes of a training run, dump the archive
+#   appcds.sh run     # start with the fast-start profile and the archive, if present
+set -e
+
+JAR=${JAR:-target/sentiment-analysis-1.0-SNAPSHOT.jar}
+LIB=${LIB:-$(dirname "$JAR")/lib}
+WORK=${WORK:-target/appcds}
+MAIN=net.mls.modelserving.SentimentAnalysisApplication
+APPCDS="-XX:+UnlockCommercialFeatures -XX:+UseAppCDS"
+
+mkdir -p "$WORK"
+WORK=$(cd "$WORK" && pwd)
+ARCHIVE=$WORK/sentiment-analysis.jsa
+CLASSLIST=$WORK/classes.lst
+
+appcds_supported() {
+    java $APPCDS -version >/dev/null 2>&1
+}
+
+# absolute paths in a fixed order: the archive is only used with the classpath it was dumped with
+classpath() {
+    if [ ! -f "$JAR" ] || [ ! -d "$LIB" ]; then
+        echo "Missing $JAR or $LIB; build with mvn package first" >&2
+        exit 1
+    fi
+    CP=$(cd "$(dirname "$JAR")" && pwd)/$(basename "$JAR")
+    LIB_PATH=$(cd "$LIB" && pwd)
+    for lib in $(ls "$LIB_PATH"/*.jar | sort); do
+        CP=$CP:$lib
+    done
+    echo "$CP"
+}
+
+case "$1" in
+    train)
+        if ! appcds_supported; then
+            echo "This JVM has no AppCDS (-XX:+UseAppCDS needs an Oracle JDK 8u40+)" >&2
+            exit 1
+        fi
+        CP=$(classpath)
+        echo "$CP" > "$WORK/classpath"
+        java $APPCDS -XX:DumpLoadedClassList="$CLASSLIST" \
+            -Dspring.profiles.active=faststart -Dappcds.trainingRun=true \
+            -cp "$CP" $MAIN
+        exec java $APPCDS -Xshare:dump -XX:SharedClassListFile="$CLASSLIST" \
+            -XX:SharedArchiveFile="$ARCHIVE" -cp "$CP"
+        ;;
+    run)
+        CP=$(classpath)
+        if [ -f "$ARCHIVE" ] && [ "$CP" = "$(cat "$WORK/classpath" 2>/dev/null)" ] && appcds_supported; then
+            exec java $APPCDS -Xshare:auto -XX:SharedArchiveFile="$ARCHIVE" \
+                -Dspring.profiles.active=faststart -cp "$CP" $MAIN
+        fi
+        exec java -Dspring.profiles.active=faststart -cp "$CP" $MAIN
+        ;;
+    *)
+        echo "usage: $0 train|run" >&2
+        exit 2
+        ;;
+esac
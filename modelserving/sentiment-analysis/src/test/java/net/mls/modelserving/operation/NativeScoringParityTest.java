@@ -0,0 +1,144 @@
+package net.mls.modelserving.operation;
+
+import org.apache.spark.ml.Pipeline;
+import org.apache.spark.ml.PipelineModel;
+import org.apache.spark.ml.PipelineStage;
+import org.apache.spark.ml.classification.LogisticRegression;
+import org.apache.spark.ml.classification.LogisticRegressionModel;
+import org.apache.spark.ml.feature.HashingTF;
+import org.apache.spark.ml.feature.IDF;
+import org.apache.spark.ml.feature.Tokenizer;
+import org.apache.spark.ml.linalg.Vector;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Fits the four-stage pipeline the learning pipeline trains and checks that the native scorer
+ * extracted from it gives the same probability and label as {@code PipelineModel.transform},
+ * through tokenizing, hashing, IDF scaling, the dot product, intercept, sigmoid and threshold.
+ */
+public class NativeScoringParityTest {
+    private static final String[] TRAINING = {
+            "love it", "great app love the rewards", "works great", "best coffee ever, love it",
+            "free stuff is always good", "fast and easy", "really great service",
+            "crashes constantly", "hate the new update", "slow and buggy", "worst app ever",
+            "keeps crashing on login", "terrible support, slow", "update broke everything"
+    };
+
+    private static final String[] REVIEWS = {
+            "love it",
+            "Crashes constantly!!! Worst... app... EVER?!",
+            "great,app;love:the-rewards",
+            "(free) [stuff] {is} \"always\" 'good'",
+            "",
+            "   ",
+            "\ttabs\tand\nnewlines\r\n",
+            "\u00c9NORME caf\u00e9 na\u00efve",
+            "\u0130stanbul \u00c7ILGIN Stra\u00dfe",
+            "\u03a3\u0391\u03a3 \u039f\u0394\u039f\u03a3",
+            "emoji \ud83d\ude00 love it \ud83d\ude00",
+            "words the model never saw"
+    };
+
+    private static SparkSession spark;
+    private static StructType schema;
+
+    @BeforeClass
+    public static void startSpark() {
+        spark = SparkSession.builder()
+                .appName("NativeScoringParityTest")
+                .master("local")
+                .config("spark.testing.memory", "471859200")
+                .getOrCreate();
+        schema = new StructType(new StructField[]{
+                DataTypes.createStructField("review", DataTypes.StringType, false),
+                DataTypes.createStructField("label", DataTypes.DoubleType, false)
+        });
+    }
+
+    @AfterClass
+    public static void stopSpark() {
+        spark.stop();
+    }
+
+    @Test
+    public void matchesSparkWithTermFrequencies() {
+        assertParity(fit(false), REVIEWS);
+    }
+
+    @Test
+    public void matchesSparkWithBinaryTermFrequencies() {
+        assertParity(fit(true), REVIEWS);
+    }
+
+    @Test
+    public void matchesSparkForAReviewExactlyAtTheThreshold() {
+        PipelineModel model = fit(false);
+        String review = "great app love the rewards";
+        double probability = sparkScores(model, review).get(0)[0];
+        // predictions are positive only above the threshold, on both paths
+        ((LogisticRegressionModel) model.stages()[3]).setThreshold(probability);
+
+        assertEquals(0.0, sparkScores(model, review).get(0)[1], 0.0);
+        assertEquals(0.0, NativeLogisticRegressionModel.from(model).predict(review), 0.0);
+        assertParity(model, REVIEWS);
+    }
+
+    private static void assertParity(PipelineModel model, String[] reviews) {
+        NativeLogisticRegressionModel nativeModel = NativeLogisticRegressionModel.from(model);
+        List<double[]> expected = sparkScores(model, reviews);
+        for (int i = 0; i < reviews.length; i++) {
+            String message = "\"" + reviews[i] + "\"";
+            assertEquals(message, expected.get(i)[0], nativeModel.probability(reviews[i]), 0.0);
+            assertEquals(message, expected.get(i)[1], nativeModel.predict(reviews[i]), 0.0);
+        }
+    }
+
+    /**
+     * Positive-class probability and predicted label of each review, in input order.
+     */
+    private static List<double[]> sparkScores(PipelineModel model, String... reviews) {
+        List<double[]> scores = new ArrayList<>();
+        for (Row row : model.transform(frame(Arrays.asList(reviews), 0.0))
+                .select("probability", "prediction").collectAsList()) {
+            scores.add(new double[]{((Vector) row.get(0)).apply(1), row.getDouble(1)});
+        }
+        return scores;
+    }
+
+    private static PipelineModel fit(boolean binary) {
+        List<String> positive = Arrays.asList(TRAINING).subList(0, 7);
+        List<String> negative = Arrays.asList(TRAINING).subList(7, TRAINING.length);
+        Dataset<Row> data = frame(positive, 1.0).union(frame(negative, 0.0));
+
+        Tokenizer tokenizer = new Tokenizer().setInputCol("review").setOutputCol("words");
+        HashingTF hashingTF = new HashingTF().setInputCol("words").setOutputCol("rawFeatures")
+                .setNumFeatures(1000)
+                .setBinary(binary);
+        IDF idf = new IDF().setInputCol("rawFeatures").setOutputCol("features");
+        LogisticRegression lr = new LogisticRegression().setMaxIter(10).setRegParam(0.01);
+        return new Pipeline().setStages(new PipelineStage[]{tokenizer, hashingTF, idf, lr}).fit(data);
+    }
+
+    private static Dataset<Row> frame(List<String> reviews, double label) {
+        List<Row> rows = new ArrayList<>();
+        for (String review : reviews) {
+            rows.add(RowFactory.create(review, label));
+        }
+        return spark.createDataFrame(rows, schema);
+    }
+}